@@ -3,7 +3,10 @@ package com.gitbitex;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
@@ -12,7 +15,16 @@ import org.springframework.context.annotation.Configuration;
 @Slf4j
 public class AppConfiguration {
 
-
+    /**
+     * Hands every http request, including websocket handshakes, to a virtual thread of its own, so blocking redis
+     * and mongo calls do not tie up a pool thread.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "gbe.virtual-threads-enabled", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        VirtualThreads.checkSupported();
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-"));
+    }
 }
 
 
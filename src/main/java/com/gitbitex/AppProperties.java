@@ -5,6 +5,10 @@ import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
 @ConfigurationProperties(prefix = "gbe")
 @Getter
 @Setter
@@ -12,4 +16,38 @@ import org.springframework.validation.annotation.Validated;
 public class AppProperties {
     private String matchingEngineCommandTopic;
     private String matchingEngineMessageTopic;
+    /**
+     * Topic the order, account and trade messages are copied to for the feed, partitioned by user and product, so
+     * that a feed node only reads the partitions of the users and products it serves
+     */
+    private String matchingEngineFeedMessageTopic;
+    /**
+     * Number of partitions of the feed message topic, must be the same on every node
+     */
+    private int feedMessagePartitions = 16;
+    private int tradeSegmentRetentionHours = 24;
+    /**
+     * Level2 changes are micro-batched within this window before being published
+     */
+    private int l2UpdateWindowMs = 20;
+    /**
+     * Number of price levels kept on each side of the level2 books
+     */
+    private int l2OrderBookDepth = 25;
+    /**
+     * Price steps of the aggregated level2 books maintained besides the full precision one, e.g. 0.1,1,10
+     */
+    private List<BigDecimal> l2Aggregations = new ArrayList<>();
+    /**
+     * Number of shards the order books are split into, products are assigned to shards by the hash of their id
+     */
+    private int orderBookShardCount = 1;
+    /**
+     * Order book shards maintained by this node, all of them if empty
+     */
+    private List<Integer> orderBookShards = new ArrayList<>();
+    /**
+     * Runs http requests and websocket writes on virtual threads, needs Java 21 or later
+     */
+    private boolean virtualThreadsEnabled = false;
 }
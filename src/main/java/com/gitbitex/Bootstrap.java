@@ -1,11 +1,17 @@
 package com.gitbitex;
 
+import com.gitbitex.feed.FeedEngineMessageThread;
+import com.gitbitex.feed.FeedMessageListener;
+import com.gitbitex.feed.FeedMessageRelayThread;
+import com.gitbitex.feed.SessionManager;
 import com.gitbitex.marketdata.*;
 import com.gitbitex.marketdata.manager.AccountManager;
 import com.gitbitex.marketdata.manager.OrderManager;
 import com.gitbitex.marketdata.manager.TickerManager;
 import com.gitbitex.marketdata.manager.TradeManager;
+import com.gitbitex.marketdata.orderbook.OpenOrderIndex;
 import com.gitbitex.marketdata.orderbook.OrderBookSnapshotManager;
+import com.gitbitex.marketdata.orderbook.OrderBookSnapshotPublisher;
 import com.gitbitex.marketdata.repository.CandleRepository;
 import com.gitbitex.matchingengine.MatchingEngineLoader;
 import com.gitbitex.matchingengine.MatchingEngineThread;
@@ -17,17 +23,26 @@ import com.gitbitex.matchingengine.message.Message;
 import com.gitbitex.matchingengine.snapshot.EngineSnapshotManager;
 import com.gitbitex.matchingengine.snapshot.MatchingEngineSnapshotThread;
 import com.gitbitex.middleware.kafka.KafkaProperties;
+import com.gitbitex.middleware.kafka.KafkaTopics;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
-import org.redisson.api.RedissonClient;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 @Component
 @RequiredArgsConstructor
@@ -44,7 +59,10 @@ public class Bootstrap {
     private final MatchingEngineLoader matchingEngineLoader;
     private final MessageSender messageSender;
     private final OrderBookSnapshotManager orderBookSnapshotManager;
-    private final RedissonClient redissonClient;
+    private final OrderBookSnapshotPublisher orderBookSnapshotPublisher;
+    private final OpenOrderIndex openOrderIndex;
+    private final FeedMessageListener feedMessageListener;
+    private final SessionManager sessionManager;
     private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(8);
 
     @PostConstruct
@@ -56,7 +74,13 @@ public class Bootstrap {
         startCandleMaker(1);
         startTickerThread(1);
         startSnapshotThread(1);
-        startOrderBookSnapshotThread(1);
+        startOrderBookSnapshotThreads();
+        startOpenOrderIndexThread();
+        KafkaTopics.ensureTopic(kafkaProperties.getBootstrapServers(),
+                appProperties.getMatchingEngineFeedMessageTopic(), appProperties.getFeedMessagePartitions());
+        startFeedMessageRelayThread();
+        startFeedEngineMessageThread();
+        startTradeSegmentRoller();
     }
 
     private void startMatchingEngine(int nThreads) {
@@ -81,25 +105,79 @@ public class Bootstrap {
         }
     }
 
-    private void startOrderBookSnapshotThread(int nThreads) {
-        for (int i = 0; i < nThreads; i++) {
-            String groupId = "OrderBookSnapshot";
-            var consumer = getEngineMessageKafkaConsumer(groupId);
-            var thread = new OrderBookSnapshotThread(consumer, orderBookSnapshotManager, engineSnapshotManager,
-                    appProperties);
-            thread.setName(groupId + "-" + thread.getId());
-            thread.setUncaughtExceptionHandler(getUncaughtExceptionHandler(() ->
-                    startOrderBookSnapshotThread(1)));
-            thread.start();
+    private void startOrderBookSnapshotThreads() {
+        orderBookSnapshotManager.checkShardCount(appProperties.getOrderBookShardCount());
+        List<Integer> shards = appProperties.getOrderBookShards();
+        if (shards.isEmpty()) {
+            shards = IntStream.range(0, appProperties.getOrderBookShardCount()).boxed().toList();
+        }
+        for (int shard : shards) {
+            if (shard < 0 || shard >= appProperties.getOrderBookShardCount()) {
+                throw new IllegalStateException("order book shard out of range: " + shard);
+            }
         }
+        shards.forEach(this::startOrderBookSnapshotThread);
+    }
+
+    private void startOrderBookSnapshotThread(int shard) {
+        String groupId = "OrderBookSnapshot-" + shard;
+        var consumer = new KafkaConsumer<>(getProperties(groupId), new StringDeserializer(),
+                new ByteArrayDeserializer());
+        var thread = new OrderBookSnapshotThread(consumer, orderBookSnapshotPublisher,
+                engineSnapshotManager, appProperties, shard);
+        thread.setName(groupId + "-" + thread.getId());
+        thread.setUncaughtExceptionHandler(getUncaughtExceptionHandler(() -> startOrderBookSnapshotThread(shard)));
+        thread.start();
+    }
+
+    private void startOpenOrderIndexThread() {
+        String groupId = "OpenOrderIndex";
+        var consumer = getEngineMessageKafkaConsumer(groupId);
+        var thread = new OpenOrderIndexThread(consumer, openOrderIndex, engineSnapshotManager, appProperties);
+        thread.setName(groupId + "-" + thread.getId());
+        thread.setUncaughtExceptionHandler(getUncaughtExceptionHandler(this::startOpenOrderIndexThread));
+        thread.start();
+    }
+
+    private void startFeedMessageRelayThread() {
+        String groupId = "FeedMessageRelay";
+        var consumer = new KafkaConsumer<>(getProperties(groupId), new StringDeserializer(),
+                new ByteArrayDeserializer());
+        var producer = new KafkaProducer<>(getTransactionalProducerProperties(groupId + "-" + UUID.randomUUID()),
+                new StringSerializer(), new ByteArraySerializer());
+        var thread = new FeedMessageRelayThread(consumer, producer, appProperties);
+        thread.setName(groupId + "-" + thread.getId());
+        thread.setUncaughtExceptionHandler(getUncaughtExceptionHandler(this::startFeedMessageRelayThread));
+        thread.start();
+    }
+
+    private void startFeedEngineMessageThread() {
+        String groupId = "Feed";
+        Properties properties = getProperties(groupId);
+        // skip the copies of aborted relay transactions
+        properties.put("isolation.level", "read_committed");
+        var consumer = new KafkaConsumer<>(properties, new StringDeserializer(), new ByteArrayDeserializer());
+        var thread = new FeedEngineMessageThread(consumer, feedMessageListener, sessionManager, appProperties);
+        thread.setName(groupId + "-" + thread.getId());
+        thread.setUncaughtExceptionHandler(getUncaughtExceptionHandler(this::startFeedEngineMessageThread));
+        thread.start();
+    }
+
+    private void startTradeSegmentRoller() {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                tradeManager.rollUpSegments();
+            } catch (Exception e) {
+                logger.error("roll up trade segments error: {}", e.getMessage(), e);
+            }
+        }, 1, 10, TimeUnit.MINUTES);
     }
 
     private void startAccountPersistenceThread(int nThreads) {
         for (int i = 0; i < nThreads; i++) {
             String groupId = "Account";
             var consumer = getEngineMessageKafkaConsumer(groupId);
-            var thread = new AccountPersistenceThread(consumer, accountManager, redissonClient,
-                    appProperties);
+            var thread = new AccountPersistenceThread(consumer, accountManager, appProperties);
             thread.setName(groupId + "-" + thread.getId());
             thread.setUncaughtExceptionHandler(getUncaughtExceptionHandler(() ->
                     startAccountPersistenceThread(1)));
@@ -122,7 +200,7 @@ public class Bootstrap {
         for (int i = 0; i < nThreads; i++) {
             String groupId = "Order";
             var consumer = getEngineMessageKafkaConsumer(groupId);
-            var thread = new OrderPersistenceThread(consumer, orderManager, redissonClient, appProperties);
+            var thread = new OrderPersistenceThread(consumer, orderManager, appProperties);
             thread.setName(groupId + "-" + thread.getId());
             thread.setUncaughtExceptionHandler(getUncaughtExceptionHandler(() ->
                     startOrderPersistenceThread(1)));
@@ -145,7 +223,7 @@ public class Bootstrap {
         for (int i = 0; i < nThreads; i++) {
             String groupId = "Trade1";
             var consumer = getEngineMessageKafkaConsumer(groupId);
-            var thread = new TradePersistenceThread(consumer, tradeManager, redissonClient, appProperties);
+            var thread = new TradePersistenceThread(consumer, tradeManager, appProperties);
             thread.setName(groupId + "-" + thread.getId());
             thread.setUncaughtExceptionHandler(getUncaughtExceptionHandler(() ->
                     startTradePersistenceThread(1)));
@@ -163,7 +241,7 @@ public class Bootstrap {
                 } catch (Exception e) {
                     logger.error("start thread failed", e);
                 }
-            }, 3, java.util.concurrent.TimeUnit.SECONDS);
+            }, 3, TimeUnit.SECONDS);
         };
     }
 
@@ -186,4 +264,15 @@ public class Bootstrap {
         properties.put("max.poll.records", 2000);
         return properties;
     }
+
+    private Properties getTransactionalProducerProperties(String transactionalId) {
+        Properties properties = new Properties();
+        properties.put("bootstrap.servers", kafkaProperties.getBootstrapServers());
+        properties.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId);
+        properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        properties.put(ProducerConfig.ACKS_CONFIG, "all");
+        properties.put("compression.type", "zstd");
+        properties.put("linger.ms", 5);
+        return properties;
+    }
 }
@@ -0,0 +1,59 @@
+package com.gitbitex;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors that run every task on a new virtual thread. The code is built for Java 17, so the Java 21 api is
+ * looked up reflectively, through the public {@code Thread.Builder} interfaces only, as the classes implementing them
+ * are internal to java.base. On an older runtime nothing is supported.
+ */
+public final class VirtualThreads {
+    private static final Method OF_VIRTUAL = method("java.lang.Thread", "ofVirtual");
+    private static final Method NAME = method("java.lang.Thread$Builder", "name", String.class, long.class);
+    private static final Method FACTORY = method("java.lang.Thread$Builder", "factory");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = method("java.util.concurrent.Executors",
+            "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null && NAME != null && FACTORY != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Fails startup when virtual threads are asked for on a runtime that does not have them, rather than silently
+     * running on platform threads.
+     */
+    public static void checkSupported() {
+        if (!isSupported()) {
+            throw new IllegalStateException("gbe.virtual-threads-enabled needs Java 21 or later, this runtime is "
+                    + Runtime.version());
+        }
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread named {@code prefix + n} for every task.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        checkSupported();
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("create virtual thread executor error", e);
+        }
+    }
+
+    private static Method method(String className, String name, Class<?>... parameterTypes) {
+        try {
+            return Class.forName(className).getMethod(name, parameterTypes);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.gitbitex.feed;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes the frames of a standard websocket session through its asynchronous remote endpoint, so that a sender
+ * thread hands the frames over and moves on instead of waiting for the client. The frames of a batch are written one
+ * after the other, as the endpoint takes one message at a time. A write that does not complete within the send
+ * timeout fails, and the session is closed.
+ */
+@Slf4j
+class AsyncRemoteSession implements NonBlockingSession {
+    private final WebSocketSession session;
+    private final RemoteEndpoint.Async remote;
+    private volatile boolean writing;
+    private volatile Throwable failure;
+    private final AtomicReference<Runnable> writableCallback = new AtomicReference<>();
+
+    private AsyncRemoteSession(WebSocketSession session, RemoteEndpoint.Async remote) {
+        this.session = session;
+        this.remote = remote;
+    }
+
+    /**
+     * Returns null if the session does not wrap a standard websocket session.
+     */
+    static AsyncRemoteSession of(WebSocketSession session, long sendTimeoutMs) {
+        if (!(session instanceof NativeWebSocketSession nativeSession)) {
+            return null;
+        }
+        Session standardSession = nativeSession.getNativeSession(Session.class);
+        if (standardSession == null) {
+            return null;
+        }
+        RemoteEndpoint.Async remote = standardSession.getAsyncRemote();
+        remote.setSendTimeout(sendTimeoutMs);
+        return new AsyncRemoteSession(session, remote);
+    }
+
+    @Override
+    public boolean isWritable() {
+        return !writing;
+    }
+
+    @Override
+    public void onWritable(Runnable callback) {
+        writableCallback.set(callback);
+        if (!writing) {
+            fireWritable();
+        }
+    }
+
+    @Override
+    public void sendMessages(List<TextMessage> messages) throws IOException {
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        writing = true;
+        send(messages, 0);
+    }
+
+    private void send(List<TextMessage> messages, int index) {
+        try {
+            remote.sendText(messages.get(index).getPayload(), result -> {
+                if (!result.isOK()) {
+                    fail(result.getException());
+                } else if (index + 1 < messages.size()) {
+                    send(messages, index + 1);
+                } else {
+                    writing = false;
+                    fireWritable();
+                }
+            });
+        } catch (Exception e) {
+            // the session was closed in the meantime
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        failure = e;
+        writing = false;
+        close();
+        // the next send reports the failure
+        fireWritable();
+    }
+
+    private void fireWritable() {
+        Runnable callback = writableCallback.getAndSet(null);
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    private void close() {
+        logger.error("send websocket message error: {} {}", session.getId(), failure.getMessage());
+        try {
+            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (Exception e) {
+            logger.error("close websocket session error: {}", e.getMessage());
+        }
+    }
+}
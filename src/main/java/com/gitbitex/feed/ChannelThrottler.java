@@ -0,0 +1,166 @@
+package com.gitbitex.feed;
+
+import com.gitbitex.marketdata.orderbook.L2OrderBookChange;
+import com.gitbitex.marketdata.orderbook.L2OrderBookUpdate;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Holds back the messages of a channel for subscribers that asked for at most one message per interval, and passes
+ * on only the latest one when the interval is over. Level2 updates are merged instead, so the throttled stream still
+ * adds up to the book.
+ * <p>
+ * Intervals are rounded to {@link #INTERVAL_STEP_MS}, and all channels with the same interval share one timer, so
+ * the number of timers does not depend on the number of sessions or channels.
+ */
+@Slf4j
+public class ChannelThrottler {
+    public static final int MIN_INTERVAL_MS = 100;
+    public static final int MAX_INTERVAL_MS = 60000;
+    private static final int INTERVAL_STEP_MS = 100;
+    private final ConcurrentHashMap<String, List<Throttle>> throttlesByChannel = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, List<Throttle>> throttlesByInterval = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final BiConsumer<String, Object> sink;
+    private final Predicate<String> hasSubscribers;
+
+    /**
+     * @param sink           delivers a message to the subscribers of a throttled channel
+     * @param hasSubscribers tells whether a throttled channel is still subscribed to
+     */
+    public ChannelThrottler(BiConsumer<String, Object> sink, Predicate<String> hasSubscribers) {
+        this.sink = sink;
+        this.hasSubscribers = hasSubscribers;
+    }
+
+    public static int normalizeInterval(int intervalMs) {
+        int clamped = Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, intervalMs));
+        return Math.round((float) clamped / INTERVAL_STEP_MS) * INTERVAL_STEP_MS;
+    }
+
+    public static String throttledChannel(String channel, int intervalMs) {
+        return channel + "#" + intervalMs;
+    }
+
+    /**
+     * Starts throttling the channel at the interval. Has to be called after the session subscribed to
+     * {@link #throttledChannel}.
+     */
+    public void register(String channel, int intervalMs) {
+        String throttledChannel = throttledChannel(channel, intervalMs);
+        List<Throttle> throttles = throttlesByChannel.computeIfAbsent(channel, k -> new CopyOnWriteArrayList<>());
+        synchronized (throttles) {
+            for (Throttle throttle : throttles) {
+                if (throttle.throttledChannel.equals(throttledChannel)) {
+                    return;
+                }
+            }
+            Throttle throttle = new Throttle(channel, throttledChannel);
+            throttles.add(throttle);
+            throttlesByInterval.computeIfAbsent(intervalMs, k -> {
+                List<Throttle> intervalThrottles = new CopyOnWriteArrayList<>();
+                timer.scheduleAtFixedRate(() -> flush(intervalThrottles), intervalMs, intervalMs,
+                        TimeUnit.MILLISECONDS);
+                return intervalThrottles;
+            }).add(throttle);
+        }
+    }
+
+    public void offer(String channel, Object message) {
+        List<Throttle> throttles = throttlesByChannel.get(channel);
+        if (throttles == null) {
+            return;
+        }
+        for (Throttle throttle : throttles) {
+            throttle.offer(message);
+        }
+    }
+
+    private void flush(List<Throttle> throttles) {
+        for (Throttle throttle : throttles) {
+            try {
+                if (retireIfUnused(throttle)) {
+                    throttles.remove(throttle);
+                    continue;
+                }
+                Object message = throttle.take();
+                if (message != null) {
+                    sink.accept(throttle.throttledChannel, message);
+                }
+            } catch (Exception e) {
+                logger.error("flush throttled channel error: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Stops collecting for a throttle nobody is subscribed to anymore. Checked under the same lock as
+     * {@link #register}, which subscribers call after subscribing, so a throttle is never dropped under a new
+     * subscriber.
+     */
+    private boolean retireIfUnused(Throttle throttle) {
+        List<Throttle> channelThrottles = throttlesByChannel.get(throttle.channel);
+        synchronized (channelThrottles) {
+            if (hasSubscribers.test(throttle.throttledChannel)) {
+                return false;
+            }
+            channelThrottles.remove(throttle);
+            return true;
+        }
+    }
+
+    private static class Throttle {
+        private final String channel;
+        private final String throttledChannel;
+        private Object pending;
+        private Map<String, L2OrderBookChange> pendingChanges;
+
+        private Throttle(String channel, String throttledChannel) {
+            this.channel = channel;
+            this.throttledChannel = throttledChannel;
+        }
+
+        private synchronized void offer(Object message) {
+            if (message instanceof L2OrderBookUpdate update) {
+                L2OrderBookUpdate merged = (L2OrderBookUpdate) pending;
+                if (merged == null) {
+                    merged = new L2OrderBookUpdate();
+                    merged.setProductId(update.getProductId());
+                    merged.setAggregation(update.getAggregation());
+                    merged.setPrevSequence(update.getPrevSequence());
+                    pendingChanges = new LinkedHashMap<>();
+                    pending = merged;
+                }
+                merged.setSequence(update.getSequence());
+                merged.setTime(update.getTime());
+                for (L2OrderBookChange change : update.getChanges()) {
+                    // a later change of the same level replaces the earlier one
+                    pendingChanges.put(change.getSide() + ":" + change.getPrice(), change);
+                }
+            } else {
+                pending = message;
+            }
+        }
+
+        private synchronized Object take() {
+            Object message = pending;
+            if (message instanceof L2OrderBookUpdate merged) {
+                merged.setChanges(new ArrayList<>(pendingChanges.values()));
+                pendingChanges = null;
+            }
+            pending = null;
+            return message;
+        }
+    }
+}
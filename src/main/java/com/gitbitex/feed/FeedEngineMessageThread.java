@@ -0,0 +1,139 @@
+package com.gitbitex.feed;
+
+import com.gitbitex.AppProperties;
+import com.gitbitex.matchingengine.MessageSender;
+import com.gitbitex.matchingengine.message.AccountMessage;
+import com.gitbitex.matchingengine.message.MatchingEngineMessageDeserializer;
+import com.gitbitex.matchingengine.message.Message;
+import com.gitbitex.matchingengine.message.MessageType;
+import com.gitbitex.matchingengine.message.OrderMessage;
+import com.gitbitex.matchingengine.message.TradeMessage;
+import com.gitbitex.middleware.kafka.KafkaConsumerThread;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Feeds the order, account and trade channels straight from the engine, without waiting for the messages to be
+ * persisted and relayed through redis. {@link FeedMessageRelayThread} copies these messages to the feed message
+ * topic, to the partition of their user, or of their product for trades.
+ * <p>
+ * A node only reads the partitions of the users with a local session on a private channel and of the products with
+ * local match subscribers, so what it reads grows with the sessions it serves rather than with the whole exchange.
+ * The partitions follow the sessions: one is added when its first local user or product is subscribed to and
+ * dropped when the last one goes away, and a user that reconnects to another node is picked up there the same way.
+ * <p>
+ * No offsets are committed, an added partition starts at its end and clients catch up on what happened before
+ * through the rest api. A partition is shared by many users and products, so values are decoded only once the
+ * record headers show that a local session is interested.
+ */
+@Slf4j
+public class FeedEngineMessageThread extends KafkaConsumerThread<String, byte[]> {
+    // how long a change of the sessions may take to change the partitions read
+    private static final long ASSIGNMENT_CHECK_MS = 100;
+    private final FeedMessageListener feedMessageListener;
+    private final SessionManager sessionManager;
+    private final AppProperties appProperties;
+    private final MatchingEngineMessageDeserializer messageDeserializer = new MatchingEngineMessageDeserializer();
+    private Set<TopicPartition> assignedPartitions = Set.of();
+    private long feedInterestVersion = -1;
+
+    public FeedEngineMessageThread(KafkaConsumer<String, byte[]> consumer, FeedMessageListener feedMessageListener,
+                                   SessionManager sessionManager, AppProperties appProperties) {
+        super(consumer, logger);
+        this.feedMessageListener = feedMessageListener;
+        this.sessionManager = sessionManager;
+        this.appProperties = appProperties;
+    }
+
+    @Override
+    protected void doSubscribe() {
+        updateAssignment();
+    }
+
+    @Override
+    protected void doPoll() {
+        updateAssignment();
+        if (assignedPartitions.isEmpty()) {
+            // nothing to read, polling without partitions is not allowed
+            try {
+                Thread.sleep(ASSIGNMENT_CHECK_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        var records = consumer.poll(Duration.ofMillis(ASSIGNMENT_CHECK_MS));
+        records.forEach(x -> {
+            if (!isInteresting(x)) {
+                return;
+            }
+            Message message = messageDeserializer.deserialize(x.topic(), x.value());
+            if (message instanceof OrderMessage orderMessage) {
+                feedMessageListener.onOrderMessage(orderMessage);
+            } else if (message instanceof AccountMessage accountMessage) {
+                feedMessageListener.onAccountMessage(accountMessage);
+            } else if (message instanceof TradeMessage tradeMessage) {
+                feedMessageListener.onTradeMessage(tradeMessage);
+            }
+        });
+    }
+
+    /**
+     * Reads the partitions of the users and products local sessions are subscribed to, starting newly added ones at
+     * their end.
+     */
+    private void updateAssignment() {
+        long version = sessionManager.getFeedInterestVersion();
+        if (version == feedInterestVersion) {
+            return;
+        }
+        feedInterestVersion = version;
+
+        String topic = appProperties.getMatchingEngineFeedMessageTopic();
+        Set<TopicPartition> partitions = sessionManager.getFeedKeys().stream()
+                .map(x -> new TopicPartition(topic,
+                        FeedMessageRelayThread.feedPartition(x, appProperties.getFeedMessagePartitions())))
+                .collect(Collectors.toSet());
+        if (partitions.equals(assignedPartitions)) {
+            return;
+        }
+        Set<TopicPartition> added = new HashSet<>(partitions);
+        added.removeAll(assignedPartitions);
+        consumer.assign(partitions);
+        if (!added.isEmpty()) {
+            consumer.seekToEnd(added);
+        }
+        assignedPartitions = partitions;
+        logger.info("feed partitions assigned: {} of {}", partitions.size(),
+                appProperties.getFeedMessagePartitions());
+    }
+
+    private boolean isInteresting(ConsumerRecord<String, byte[]> record) {
+        byte[] value = record.value();
+        if (value == null || value.length == 0) {
+            return false;
+        }
+        MessageType messageType = MessageType.valueOfByte(value[0]);
+        switch (messageType) {
+            case ORDER:
+            case ACCOUNT: {
+                String userId = header(record, MessageSender.USER_ID_HEADER);
+                return userId == null || sessionManager.isUserSubscribed(userId);
+            }
+            case TRADE: {
+                String productId = header(record, MessageSender.PRODUCT_ID_HEADER);
+                return productId == null || sessionManager.hasSubscribers(productId + ".match");
+            }
+            default:
+                return false;
+        }
+    }
+}
@@ -1,14 +1,16 @@
 package com.gitbitex.feed;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
 import com.gitbitex.feed.message.*;
 import com.gitbitex.marketdata.entity.Candle;
-import com.gitbitex.marketdata.orderbook.L2OrderBook;
+import com.gitbitex.marketdata.orderbook.L2OrderBookUpdate;
 import com.gitbitex.matchingengine.Account;
 import com.gitbitex.matchingengine.Order;
 import com.gitbitex.matchingengine.Trade;
 import com.gitbitex.matchingengine.message.*;
-import com.gitbitex.stripexecutor.StripedExecutorService;
+import com.gitbitex.stripexecutor.HashedStripedExecutor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RedissonClient;
@@ -16,6 +18,8 @@ import org.redisson.client.codec.StringCodec;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
 
 @Component
 @Slf4j
@@ -23,38 +27,20 @@ import javax.annotation.PostConstruct;
 public class FeedMessageListener {
     private final RedissonClient redissonClient;
     private final SessionManager sessionManager;
-    private final StripedExecutorService callbackExecutor =
-            new StripedExecutorService(Runtime.getRuntime().availableProcessors());
+    private final OrderBookLogBuffer orderBookLogBuffer;
+    private final FeedSnapshotCache feedSnapshotCache;
+    private final HashedStripedExecutor callbackExecutor =
+            new HashedStripedExecutor("FeedCallback", Runtime.getRuntime().availableProcessors());
 
     @PostConstruct
     public void run() {
-        redissonClient.getTopic("order", StringCodec.INSTANCE).addListener(String.class, (c, msg) -> {
-            OrderMessage orderMessage = JSON.parseObject(msg, OrderMessage.class);
-            callbackExecutor.execute(orderMessage.getOrder().getUserId(), () -> {
-                String channel = orderMessage.getOrder().getUserId() + "." + orderMessage.getOrder().getProductId() + ".order";
-                sessionManager.broadcast(channel, orderFeedMessage(orderMessage));
-            });
-        });
-
-        redissonClient.getTopic("account", StringCodec.INSTANCE).addListener(String.class, (c, msg) -> {
-            AccountMessage accountMessage = JSON.parseObject(msg, AccountMessage.class);
-            callbackExecutor.execute(accountMessage.getAccount().getUserId(), () -> {
-                String channel = accountMessage.getAccount().getUserId() + "." + accountMessage.getAccount().getCurrency() + ".funds";
-                sessionManager.broadcast(channel, accountFeedMessage(accountMessage));
-            });
-        });
-
-        redissonClient.getTopic("trade", StringCodec.INSTANCE).addListener(String.class, (c, msg) -> {
-            TradeMessage tradeMessage = JSON.parseObject(msg, TradeMessage.class);
-            String channel = tradeMessage.getTrade().getProductId() + ".match";
-            sessionManager.broadcast(channel, matchMessage(tradeMessage));
-        });
-
         redissonClient.getTopic("ticker", StringCodec.INSTANCE).addListener(String.class, (c, msg) -> {
             TickerMessage tickerMessage = JSON.parseObject(msg, TickerMessage.class);
             callbackExecutor.execute(tickerMessage.getProductId(), () -> {
                 String channel = tickerMessage.getProductId() + ".ticker";
-                sessionManager.broadcast(channel, tickerFeedMessage(tickerMessage));
+                TickerFeedMessage tickerFeedMessage = tickerFeedMessage(tickerMessage);
+                feedSnapshotCache.onTicker(tickerFeedMessage);
+                sessionManager.broadcast(channel, tickerFeedMessage);
             });
         });
 
@@ -66,44 +52,70 @@ public class FeedMessageListener {
             });
         });
 
-        redissonClient.getTopic("l2_batch", StringCodec.INSTANCE).addListener(String.class, (c, msg) -> {
-            L2OrderBook l2OrderBook = JSON.parseObject(msg, L2OrderBook.class);
-            callbackExecutor.execute(l2OrderBook.getProductId(), () -> {
-                String channel = l2OrderBook.getProductId() + ".level2";
-                sessionManager.broadcast(channel, l2OrderBook);
+        redissonClient.getTopic("l2_update", StringCodec.INSTANCE).addListener(String.class, (c, msg) -> {
+            L2OrderBookUpdate update = JSON.parseObject(msg, L2OrderBookUpdate.class);
+            callbackExecutor.execute(update.getProductId(), () -> {
+                String channel = SessionManager.l2Channel(update.getProductId(), update.getAggregation());
+                feedSnapshotCache.onL2Update(update);
+                sessionManager.broadcast(channel, update);
             });
         });
 
         redissonClient.getTopic("orderBookLog", StringCodec.INSTANCE).addListener(String.class, (c, msg) -> {
-            OrderBookMessage message = JSON.parseObject(msg, OrderBookMessage.class);
-            callbackExecutor.execute(message.getProductId(), () -> {
-                switch (message.getType()) {
-                    case ORDER_RECEIVED:
-                        OrderReceivedMessage orderReceivedMessage = JSON.parseObject(msg, OrderReceivedMessage.class);
-                        sessionManager.broadcast(orderReceivedMessage.getProductId() + ".full",
-                                (orderReceivedMessage(orderReceivedMessage)));
-                        break;
-                    case ORDER_OPEN:
-                        OrderOpenMessage orderOpenMessage = JSON.parseObject(msg, OrderOpenMessage.class);
-                        sessionManager.broadcast(orderOpenMessage.getProductId() + ".full",
-                                (orderOpenMessage(orderOpenMessage)));
-                        break;
-                    case ORDER_DONE:
-                        OrderDoneMessage orderDoneMessage = JSON.parseObject(msg, OrderDoneMessage.class);
-                        sessionManager.broadcast(orderDoneMessage.getProductId() + ".full",
-                                (orderDoneMessage(orderDoneMessage)));
-                        break;
-                    default:
+            JSONArray messages = JSON.parseArray(msg);
+            if (messages.isEmpty()) {
+                return;
+            }
+            String productId = messages.getJSONObject(0).getString("productId");
+            callbackExecutor.execute(productId, () -> {
+                List<OrderBookLogBuffer.Entry> entries = new ArrayList<>(messages.size());
+                for (int i = 0; i < messages.size(); i++) {
+                    JSONObject message = messages.getJSONObject(i);
+                    Object feedMessage = switch (OrderBookMessage.MessageType.valueOf(message.getString("type"))) {
+                        case ORDER_RECEIVED -> orderReceivedMessage(message.toJavaObject(OrderReceivedMessage.class));
+                        case ORDER_OPEN -> orderOpenMessage(message.toJavaObject(OrderOpenMessage.class));
+                        case ORDER_MATCH -> orderMatchMessage(message.toJavaObject(OrderMatchMessage.class));
+                        case ORDER_DONE -> orderDoneMessage(message.toJavaObject(OrderDoneMessage.class));
+                    };
+                    entries.add(new OrderBookLogBuffer.Entry(message.getLongValue("sequence"),
+                            message.getLongValue("prevSequence"), feedMessage));
                 }
+                orderBookLogBuffer.append(productId, entries,
+                        () -> sessionManager.broadcastOrderBookLog(productId, entries));
             });
         });
     }
 
+    public void onOrderMessage(OrderMessage orderMessage) {
+        Order order = orderMessage.getOrder();
+        callbackExecutor.execute(order.getUserId(), () -> {
+            String channel = order.getUserId() + "." + order.getProductId() + ".order";
+            sessionManager.broadcast(channel, orderFeedMessage(orderMessage));
+        });
+    }
+
+    public void onAccountMessage(AccountMessage accountMessage) {
+        Account account = accountMessage.getAccount();
+        callbackExecutor.execute(account.getUserId(), () -> {
+            String channel = account.getUserId() + "." + account.getCurrency() + ".funds";
+            sessionManager.broadcast(channel, accountFeedMessage(accountMessage));
+        });
+    }
+
+    public void onTradeMessage(TradeMessage tradeMessage) {
+        Trade trade = tradeMessage.getTrade();
+        callbackExecutor.execute(trade.getProductId(), () -> {
+            String channel = trade.getProductId() + ".match";
+            sessionManager.broadcast(channel, matchMessage(tradeMessage));
+        });
+    }
+
     private OrderReceivedFeedMessage orderReceivedMessage(OrderReceivedMessage log) {
         OrderReceivedFeedMessage message = new OrderReceivedFeedMessage();
         message.setProductId(log.getProductId());
         message.setTime(log.getTime().toInstant().toString());
         message.setSequence(log.getSequence());
+        message.setPrevSequence(log.getPrevSequence());
         message.setOrderId(log.getOrderId());
         message.setSize(log.getSize().stripTrailingZeros().toPlainString());
         message.setPrice(log.getPrice() != null ? log.getPrice().stripTrailingZeros().toPlainString() : null);
@@ -128,9 +140,26 @@ public class FeedMessageListener {
         return message;
     }
 
+    private OrderMatchFeedMessage orderMatchMessage(OrderMatchMessage log) {
+        OrderMatchFeedMessage message = new OrderMatchFeedMessage();
+        message.setTradeId(log.getTradeId());
+        message.setSequence(log.getSequence());
+        message.setPrevSequence(log.getPrevSequence());
+        message.setTakerOrderId(log.getTakerOrderId());
+        message.setMakerOrderId(log.getMakerOrderId());
+        message.setTime(log.getTime().toInstant().toString());
+        message.setProductId(log.getProductId());
+        message.setSize(log.getSize().stripTrailingZeros().toPlainString());
+        message.setPrice(log.getPrice().stripTrailingZeros().toPlainString());
+        message.setSide(log.getSide().name().toLowerCase());
+        return message;
+    }
+
     private OrderOpenFeedMessage orderOpenMessage(OrderOpenMessage log) {
         OrderOpenFeedMessage message = new OrderOpenFeedMessage();
         message.setSequence(log.getSequence());
+        message.setPrevSequence(log.getPrevSequence());
+        message.setOrderId(log.getOrderId());
         message.setTime(log.getTime().toInstant().toString());
         message.setProductId(log.getProductId());
         message.setPrice(log.getPrice().stripTrailingZeros().toPlainString());
@@ -142,13 +171,15 @@ public class FeedMessageListener {
     private OrderDoneFeedMessage orderDoneMessage(OrderDoneMessage log) {
         OrderDoneFeedMessage message = new OrderDoneFeedMessage();
         message.setSequence(log.getSequence());
+        message.setPrevSequence(log.getPrevSequence());
+        message.setOrderId(log.getOrderId());
         message.setTime(log.getTime().toInstant().toString());
         message.setProductId(log.getProductId());
         if (log.getPrice() != null) {
             message.setPrice(log.getPrice().stripTrailingZeros().toPlainString());
         }
         message.setSide(log.getSide().name().toLowerCase());
-        //message.setReason(log.getDoneReason().name().toUpperCase());
+        message.setReason(log.getDoneReason());
         if (log.getRemainingSize() != null) {
             message.setRemainingSize(log.getRemainingSize().stripTrailingZeros().toPlainString());
         }
@@ -0,0 +1,144 @@
+package com.gitbitex.feed;
+
+import com.gitbitex.AppProperties;
+import com.gitbitex.matchingengine.MessageSender;
+import com.gitbitex.matchingengine.message.MessageType;
+import com.gitbitex.middleware.kafka.KafkaConsumerThread;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copies the order, account and trade messages of the engine message topic to the feed message topic, to the
+ * partition of their user, or of their product for trades, see {@link #feedPartition}. The matching engine only
+ * writes its own topic, the copy is made here off its path.
+ * <p>
+ * The copies and the consumed offsets are committed in one transaction, so every message reaches the feed topic
+ * exactly once for readers that only see committed records. Values are forwarded as they were read, only the type
+ * byte and the headers are looked at.
+ */
+@Slf4j
+public class FeedMessageRelayThread extends KafkaConsumerThread<String, byte[]> implements ConsumerRebalanceListener {
+    private final Producer<String, byte[]> producer;
+    private final AppProperties appProperties;
+
+    public FeedMessageRelayThread(KafkaConsumer<String, byte[]> consumer, Producer<String, byte[]> producer,
+                                  AppProperties appProperties) {
+        super(consumer, logger);
+        this.producer = producer;
+        this.appProperties = appProperties;
+    }
+
+    /**
+     * The partition of the feed message topic that carries the messages of a user or product.
+     */
+    public static int feedPartition(String key, int partitions) {
+        return Math.floorMod(key.hashCode(), partitions);
+    }
+
+    @Override
+    public void run() {
+        try {
+            super.run();
+        } finally {
+            producer.close();
+        }
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> collection) {
+
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> collection) {
+
+    }
+
+    @Override
+    protected void doSubscribe() {
+        producer.initTransactions();
+        consumer.subscribe(Collections.singletonList(appProperties.getMatchingEngineMessageTopic()), this);
+    }
+
+    @Override
+    protected void doPoll() {
+        var records = consumer.poll(Duration.ofSeconds(5));
+        if (records.isEmpty()) {
+            return;
+        }
+
+        producer.beginTransaction();
+        try {
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            records.forEach(x -> {
+                relay(x);
+                offsets.put(new TopicPartition(x.topic(), x.partition()), new OffsetAndMetadata(x.offset() + 1));
+            });
+            producer.sendOffsetsToTransaction(offsets, consumer.groupMetadata());
+            producer.commitTransaction();
+        } catch (ProducerFencedException | OutOfOrderSequenceException | AuthorizationException e) {
+            // the producer can not be used anymore
+            throw e;
+        } catch (KafkaException e) {
+            logger.warn("relay transaction aborted, the records will be read again: {}", e.getMessage());
+            producer.abortTransaction();
+            rewind(records);
+        }
+    }
+
+    private void relay(ConsumerRecord<String, byte[]> record) {
+        byte[] value = record.value();
+        if (value == null || value.length == 0) {
+            return;
+        }
+        String key;
+        MessageType messageType = MessageType.valueOfByte(value[0]);
+        switch (messageType) {
+            case ORDER:
+            case ACCOUNT:
+                key = header(record, MessageSender.USER_ID_HEADER);
+                break;
+            case TRADE:
+                key = header(record, MessageSender.PRODUCT_ID_HEADER);
+                break;
+            default:
+                return;
+        }
+        if (key == null) {
+            return;
+        }
+        ProducerRecord<String, byte[]> feedRecord = new ProducerRecord<>(
+                appProperties.getMatchingEngineFeedMessageTopic(),
+                feedPartition(key, appProperties.getFeedMessagePartitions()), key, value);
+        record.headers().forEach(feedRecord.headers()::add);
+        producer.send(feedRecord);
+    }
+
+    /**
+     * Moves the partitions still assigned back to the first record of the aborted batch.
+     */
+    private void rewind(ConsumerRecords<String, byte[]> records) {
+        for (TopicPartition partition : records.partitions()) {
+            if (consumer.assignment().contains(partition)) {
+                consumer.seek(partition, records.records(partition).get(0).offset());
+            }
+        }
+    }
+}
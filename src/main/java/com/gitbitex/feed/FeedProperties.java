@@ -0,0 +1,51 @@
+package com.gitbitex.feed;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties(prefix = "gbe.feed")
+@Getter
+@Setter
+@Validated
+public class FeedProperties {
+    /**
+     * Maximum number of frames waiting to be sent to one session
+     */
+    private int sessionQueueSize = 1000;
+    /**
+     * What to do with a session whose queue is full
+     */
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.CONFLATE;
+    /**
+     * A session whose transport has not taken a frame for longer than this is closed
+     */
+    private long sendTimeoutMs = 5000;
+    /**
+     * How long a session that asked for batched frames waits for more messages before its queue is sent
+     */
+    private int batchWindowMs = 5;
+    /**
+     * A batched frame is closed once it holds about this many bytes of messages
+     */
+    private int batchMaxBytes = 64 * 1024;
+    /**
+     * Serves the feed from a non-blocking websocket server on {@link #nioPort} as well
+     */
+    private boolean nioEnabled = false;
+    private int nioPort = 8081;
+    /**
+     * Number of threads decoding incoming frames of the non-blocking server
+     */
+    private int nioWorkers = Runtime.getRuntime().availableProcessors();
+    /**
+     * Frames a connection of the non-blocking server may have waiting in its socket buffer before further frames are
+     * held back in the session queue
+     */
+    private int nioSendBufferFrames = 64;
+    /**
+     * Whether the non-blocking server accepts the permessage-deflate extension when a client offers it
+     */
+    private boolean nioPerMessageDeflate = true;
+}
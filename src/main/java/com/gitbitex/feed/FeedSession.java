@@ -0,0 +1,320 @@
+package com.gitbitex.feed;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outbound side of a websocket session. Frames are queued without blocking and handed to the transport by a
+ * sender thread. Sessions of the non-blocking server and standard sessions are written asynchronously, so the sender
+ * thread never waits for the client; a session whose transport has not taken a frame for {@code sendTimeoutMs} is
+ * closed. Any other session is written with blocking sends, which can hold a sender thread for up to the send timeout.
+ * <p>
+ * The queue is bounded, what happens when it is full is decided by the {@link SlowConsumerPolicy}. Only frames that
+ * are conflated or that belong to a sequenced channel can be dropped, since their channels start over from a
+ * snapshot; a session that would lose any other frame, such as an order, funds or match message, is closed instead.
+ * <p>
+ * A session can ask for batched frames, its queued messages are then sent as JSON arrays of up to
+ * {@code batchMaxBytes}, after waiting {@code batchWindowMs} for a burst to build up.
+ */
+@Slf4j
+public class FeedSession {
+    private static final int MAX_FRAMES_PER_DRAIN = 64;
+    @Getter
+    private final WebSocketSession session;
+    private final FeedSessionMetrics metrics;
+    private final Executor senderExecutor;
+    private final ScheduledExecutorService timer;
+    private final int queueSize;
+    private final SlowConsumerPolicy policy;
+    private final long sendTimeoutMs;
+    private final NonBlockingSession transport;
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private final Map<String, Frame> conflatedFrames = new HashMap<>();
+    private int unresyncableFrames;
+    private boolean draining;
+    private boolean closed;
+    private boolean stallCheckScheduled;
+    // when the send loop started waiting for the transport to become writable, 0 if it is not waiting
+    private volatile long writableWaitStart;
+    private int batchMaxBytes;
+    private int batchWindowMs;
+
+    /**
+     * @param senderExecutor runs the send loop, may start a virtual thread for every run
+     * @param timer          delays send loops, can be the sender executor itself
+     * @param sendTimeoutMs  how long the transport may take to accept a frame before the session is closed
+     */
+    public FeedSession(WebSocketSession session, FeedSessionMetrics metrics, Executor senderExecutor,
+                       ScheduledExecutorService timer, int queueSize, SlowConsumerPolicy policy, long sendTimeoutMs) {
+        this.session = session;
+        this.metrics = metrics;
+        this.senderExecutor = senderExecutor;
+        this.timer = timer;
+        this.queueSize = queueSize;
+        this.policy = policy;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.transport = session instanceof NonBlockingSession nonBlockingSession
+                ? nonBlockingSession : AsyncRemoteSession.of(session, sendTimeoutMs);
+    }
+
+    public String getId() {
+        return session.getId();
+    }
+
+    public synchronized void enableBatching(int batchMaxBytes, int batchWindowMs) {
+        this.batchMaxBytes = batchMaxBytes;
+        this.batchWindowMs = batchWindowMs;
+    }
+
+    /**
+     * Queues the frame. Returns false if the queue was full, in which case the queued frames and this one are
+     * dropped and the caller has to resync the session. If a frame that cannot be resynced would be dropped, the
+     * session is closed instead.
+     *
+     * @param conflationKey frames with the same key replace each other while they wait, null to never conflate
+     * @param resyncable    whether the frame may be dropped because its channel can start over from a snapshot
+     */
+    public boolean send(TextMessage frame, String conflationKey, boolean resyncable) {
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            if (conflationKey != null && policy == SlowConsumerPolicy.CONFLATE) {
+                Frame waiting = conflatedFrames.get(conflationKey);
+                if (waiting != null) {
+                    waiting.message = frame;
+                    metrics.conflated();
+                    return true;
+                }
+            }
+
+            if (queue.size() < queueSize) {
+                Frame waiting = new Frame(frame, conflationKey, resyncable);
+                queue.add(waiting);
+                metrics.queued(1);
+                if (!resyncable) {
+                    unresyncableFrames++;
+                }
+                if (conflationKey != null && policy == SlowConsumerPolicy.CONFLATE) {
+                    conflatedFrames.put(conflationKey, waiting);
+                }
+                if (!draining) {
+                    draining = true;
+                    if (batchMaxBytes > 0 && batchWindowMs > 0) {
+                        scheduleDrain(batchWindowMs);
+                    } else {
+                        senderExecutor.execute(this::drain);
+                    }
+                }
+                return true;
+            }
+
+            if (policy != SlowConsumerPolicy.DISCONNECT && resyncable && unresyncableFrames == 0) {
+                metrics.dropped(queue.size() + 1);
+                queue.clear();
+                conflatedFrames.clear();
+                return false;
+            }
+        }
+
+        close(CloseStatus.SESSION_NOT_RELIABLE);
+        return true;
+    }
+
+    /**
+     * Discards whatever is still queued and closes the session if it is open.
+     */
+    public void close(CloseStatus status) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            metrics.dequeued(queue.size());
+            queue.clear();
+            conflatedFrames.clear();
+            unresyncableFrames = 0;
+        }
+        try {
+            if (session.isOpen()) {
+                logger.warn("closing websocket session: {} {}", session.getId(), status);
+                metrics.disconnected();
+                session.close(status);
+            }
+        } catch (Exception e) {
+            logger.error("close websocket session error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a bounded number of frames, then hands the thread back so that busy sessions take turns. A non-blocking
+     * transport gets them as one batch.
+     */
+    private void drain() {
+        try {
+            if (transport != null) {
+                if (!transport.isWritable()) {
+                    // the transport is still busy with earlier frames, keep the rest queued here so that the slow
+                    // consumer policy applies, until the transport asks for more
+                    awaitWritable();
+                    return;
+                }
+                List<TextMessage> frames = poll(MAX_FRAMES_PER_DRAIN);
+                if (frames.isEmpty()) {
+                    return;
+                }
+                transport.sendMessages(batch(frames));
+            } else if (batchMaxBytes > 0) {
+                List<TextMessage> frames = poll(MAX_FRAMES_PER_DRAIN);
+                if (frames.isEmpty()) {
+                    return;
+                }
+                for (TextMessage frame : batch(frames)) {
+                    session.sendMessage(frame);
+                }
+            } else {
+                for (int i = 0; i < MAX_FRAMES_PER_DRAIN; i++) {
+                    List<TextMessage> frames = poll(1);
+                    if (frames.isEmpty()) {
+                        return;
+                    }
+                    session.sendMessage(frames.get(0));
+                }
+            }
+        } catch (Exception e) {
+            logger.error("send websocket message error: {}", e.getMessage());
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+            synchronized (this) {
+                draining = false;
+            }
+            return;
+        }
+        senderExecutor.execute(this::drain);
+    }
+
+    /**
+     * Ends the send loop until the transport is writable again, which starts the next one. Only called by the send
+     * loop, which runs for one session at a time.
+     */
+    private void awaitWritable() {
+        writableWaitStart = System.currentTimeMillis();
+        scheduleStallCheck(sendTimeoutMs);
+        transport.onWritable(() -> {
+            writableWaitStart = 0;
+            senderExecutor.execute(this::drain);
+        });
+    }
+
+    /**
+     * A session has at most one stall check pending, so a session that keeps its transport busy costs a timer run
+     * per send timeout rather than one per write.
+     */
+    private void scheduleStallCheck(long delayMs) {
+        synchronized (this) {
+            if (stallCheckScheduled) {
+                return;
+            }
+            stallCheckScheduled = true;
+        }
+        timer.schedule(this::checkStalled, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkStalled() {
+        long waitStart = writableWaitStart;
+        synchronized (this) {
+            stallCheckScheduled = false;
+            if (waitStart == 0 || closed) {
+                return;
+            }
+        }
+        long waited = System.currentTimeMillis() - waitStart;
+        if (waited < sendTimeoutMs) {
+            scheduleStallCheck(sendTimeoutMs - waited);
+            return;
+        }
+        logger.warn("websocket session {} has not taken a frame for {}ms", session.getId(), waited);
+        close(CloseStatus.SESSION_NOT_RELIABLE);
+        synchronized (this) {
+            draining = false;
+        }
+    }
+
+    private void scheduleDrain(long delayMs) {
+        if (timer == senderExecutor) {
+            timer.schedule(this::drain, delayMs, TimeUnit.MILLISECONDS);
+        } else {
+            timer.schedule(() -> senderExecutor.execute(this::drain), delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Joins the messages into JSON array frames in their order, if the session asked for batched frames.
+     */
+    private List<TextMessage> batch(List<TextMessage> frames) {
+        int maxBytes;
+        synchronized (this) {
+            maxBytes = batchMaxBytes;
+        }
+        if (maxBytes <= 0) {
+            return frames;
+        }
+
+        List<TextMessage> batches = new ArrayList<>();
+        StringBuilder batch = new StringBuilder("[");
+        for (TextMessage frame : frames) {
+            if (batch.length() > 1 && batch.length() + frame.getPayload().length() > maxBytes) {
+                batches.add(new TextMessage(batch.append(']')));
+                batch = new StringBuilder("[");
+            }
+            if (batch.length() > 1) {
+                batch.append(',');
+            }
+            batch.append(frame.getPayload());
+        }
+        batches.add(new TextMessage(batch.append(']')));
+        return batches;
+    }
+
+    /**
+     * Takes up to max frames off the queue. Returns an empty list, and stops draining, if the queue is empty.
+     */
+    private synchronized List<TextMessage> poll(int max) {
+        if (queue.isEmpty()) {
+            draining = false;
+            return Collections.emptyList();
+        }
+        List<TextMessage> frames = new ArrayList<>(Math.min(max, queue.size()));
+        while (frames.size() < max && !queue.isEmpty()) {
+            Frame frame = queue.poll();
+            if (frame.conflationKey != null) {
+                conflatedFrames.remove(frame.conflationKey, frame);
+            }
+            if (!frame.resyncable) {
+                unresyncableFrames--;
+            }
+            frames.add(frame.message);
+        }
+        metrics.dequeued(frames.size());
+        return frames;
+    }
+
+    private static class Frame {
+        private final String conflationKey;
+        private final boolean resyncable;
+        private TextMessage message;
+
+        private Frame(TextMessage message, String conflationKey, boolean resyncable) {
+            this.message = message;
+            this.conflationKey = conflationKey;
+            this.resyncable = resyncable;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.gitbitex.feed;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class FeedSessionMetrics {
+    private final AtomicLong queuedFrames = new AtomicLong();
+    private final Counter droppedFrameCounter;
+    private final Counter conflatedFrameCounter;
+    private final Counter resyncCounter;
+    private final Counter disconnectCounter;
+
+    public FeedSessionMetrics() {
+        Gauge.builder("gbe.feed.session.queued-frames", queuedFrames, AtomicLong::get)
+                .register(Metrics.globalRegistry);
+        this.droppedFrameCounter = Counter.builder("gbe.feed.session.dropped-frames")
+                .register(Metrics.globalRegistry);
+        this.conflatedFrameCounter = Counter.builder("gbe.feed.session.conflated-frames")
+                .register(Metrics.globalRegistry);
+        this.resyncCounter = Counter.builder("gbe.feed.session.resyncs")
+                .register(Metrics.globalRegistry);
+        this.disconnectCounter = Counter.builder("gbe.feed.session.slow-disconnects")
+                .register(Metrics.globalRegistry);
+    }
+
+    public void queued(int count) {
+        queuedFrames.addAndGet(count);
+    }
+
+    public void dequeued(int count) {
+        queuedFrames.addAndGet(-count);
+    }
+
+    /**
+     * @param count the queued frames that were dropped plus the one that did not fit
+     */
+    public void dropped(int count) {
+        dequeued(count - 1);
+        droppedFrameCounter.increment(count);
+        resyncCounter.increment();
+    }
+
+    public void conflated() {
+        conflatedFrameCounter.increment();
+    }
+
+    public void disconnected() {
+        disconnectCounter.increment();
+    }
+}
@@ -0,0 +1,265 @@
+package com.gitbitex.feed;
+
+import com.alibaba.fastjson.JSON;
+import com.gitbitex.feed.message.L2SnapshotFeedMessage;
+import com.gitbitex.feed.message.TickerFeedMessage;
+import com.gitbitex.marketdata.entity.Ticker;
+import com.gitbitex.marketdata.manager.TickerManager;
+import com.gitbitex.marketdata.orderbook.L2OrderBook;
+import com.gitbitex.marketdata.orderbook.L2OrderBookChange;
+import com.gitbitex.marketdata.orderbook.L2OrderBookUpdate;
+import com.gitbitex.marketdata.orderbook.L3OrderBookHeader;
+import com.gitbitex.marketdata.orderbook.OrderBookSnapshotManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The latest level2 book and ticker of every product a local session asked for, kept up to date from the streams
+ * the feed receives anyway, so that new subscribers are served from memory. A book or ticker is read from redis once
+ * when it is first asked for, and a book again only after a gap in its updates.
+ * <p>
+ * Redis is only ever read on the loader threads, and without holding a lock, so neither the feed's striped workers
+ * nor the callers waiting on a book are held up by a round-trip. Concurrent callers share a single read.
+ * <p>
+ * Snapshot frames are encoded once per change and shared by all subscribers that ask before the next one.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class FeedSnapshotCache {
+    private static final int LOADER_THREADS = 4;
+    private final OrderBookSnapshotManager orderBookSnapshotManager;
+    private final TickerManager tickerManager;
+    private final ConcurrentHashMap<String, CachedBook> books = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CachedTicker> tickers = new ConcurrentHashMap<>();
+    private final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS);
+
+    @PreDestroy
+    public void close() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * Returns the latest level2 snapshot of the book, completed right away if the book is in memory. Completes with
+     * null if there is no snapshot yet or it could not be read.
+     */
+    public CompletableFuture<L2Snapshot> getL2Snapshot(String productId, String aggregation) {
+        CachedBook book = books.computeIfAbsent(SessionManager.l2Channel(productId, aggregation),
+                k -> new CachedBook(productId, aggregation));
+        return book.getSnapshot();
+    }
+
+    /**
+     * Reads the header of the latest level3 snapshot, which is not cached as a new subscriber needs the latest one.
+     * Completes with null if there is none or it could not be read.
+     */
+    public CompletableFuture<L3OrderBookHeader> getL3OrderBookHeader(String productId) {
+        return CompletableFuture.supplyAsync(() -> orderBookSnapshotManager.getL3OrderBookHeader(productId), loader)
+                .exceptionally(e -> {
+                    logger.error("read level3 header error: productId={} {}", productId, e.getMessage(), e);
+                    return null;
+                });
+    }
+
+    public void onL2Update(L2OrderBookUpdate update) {
+        CachedBook book = books.get(SessionManager.l2Channel(update.getProductId(), update.getAggregation()));
+        if (book != null) {
+            book.apply(update);
+        }
+    }
+
+    /**
+     * Returns the frame of the latest ticker of the product, completed right away if the ticker is in memory.
+     * Completes with null if there is no ticker yet or it could not be read.
+     */
+    public CompletableFuture<TextMessage> getTickerFrame(String productId) {
+        return tickers.computeIfAbsent(productId, CachedTicker::new).getFrame();
+    }
+
+    public void onTicker(TickerFeedMessage message) {
+        CachedTicker ticker = tickers.get(message.getProductId());
+        if (ticker != null) {
+            ticker.update(message);
+        }
+    }
+
+    public record L2Snapshot(long sequence, TextMessage frame) {
+    }
+
+    private class CachedBook {
+        private final String productId;
+        private final String aggregation;
+        private final TreeMap<BigDecimal, L2OrderBook.Line> asks = new TreeMap<>(Comparator.naturalOrder());
+        private final TreeMap<BigDecimal, L2OrderBook.Line> bids = new TreeMap<>(Comparator.reverseOrder());
+        private boolean loaded;
+        private long sequence;
+        private long time;
+        private L2Snapshot snapshot;
+        private CompletableFuture<L2Snapshot> loading;
+
+        private CachedBook(String productId, String aggregation) {
+            this.productId = productId;
+            this.aggregation = aggregation;
+        }
+
+        /**
+         * Starts reading the book unless it is in memory or already being read.
+         */
+        private synchronized CompletableFuture<L2Snapshot> getSnapshot() {
+            if (loaded) {
+                return CompletableFuture.completedFuture(snapshot());
+            }
+            if (loading == null) {
+                CompletableFuture<L2OrderBook> read = new CompletableFuture<>();
+                // attached before the read starts, so a read that completes at once cannot clear it too early
+                loading = read.handle(this::load);
+                loader.execute(() -> {
+                    try {
+                        read.complete(orderBookSnapshotManager.getL2BatchOrderBook(productId, aggregation));
+                    } catch (Throwable e) {
+                        read.completeExceptionally(e);
+                    }
+                });
+            }
+            return loading;
+        }
+
+        private L2Snapshot snapshot() {
+            if (snapshot == null) {
+                L2OrderBook l2OrderBook = new L2OrderBook();
+                l2OrderBook.setProductId(productId);
+                l2OrderBook.setAggregation(aggregation);
+                l2OrderBook.setSequence(sequence);
+                l2OrderBook.setTime(time);
+                l2OrderBook.setAsks(new ArrayList<>(asks.values()));
+                l2OrderBook.setBids(new ArrayList<>(bids.values()));
+                snapshot = new L2Snapshot(sequence,
+                        new TextMessage(JSON.toJSONString(new L2SnapshotFeedMessage(l2OrderBook))));
+            }
+            return snapshot;
+        }
+
+        private synchronized L2Snapshot load(L2OrderBook l2OrderBook, Throwable e) {
+            loading = null;
+            if (e != null) {
+                logger.error("read level2 book error: productId={} aggregation={} {}", productId, aggregation,
+                        e.getMessage(), e);
+                return null;
+            }
+            if (l2OrderBook == null) {
+                return null;
+            }
+            asks.clear();
+            bids.clear();
+            l2OrderBook.getAsks().forEach(x -> asks.put(new BigDecimal(x.getPrice()), x));
+            l2OrderBook.getBids().forEach(x -> bids.put(new BigDecimal(x.getPrice()), x));
+            sequence = l2OrderBook.getSequence();
+            time = l2OrderBook.getTime();
+            snapshot = null;
+            loaded = true;
+            return snapshot();
+        }
+
+        private synchronized void apply(L2OrderBookUpdate update) {
+            if (!loaded || update.getSequence() <= sequence) {
+                return;
+            }
+            if (update.getPrevSequence() != sequence) {
+                // missed an update, read the book again when it is asked for next
+                loaded = false;
+                snapshot = null;
+                return;
+            }
+
+            for (L2OrderBookChange change : update.getChanges()) {
+                TreeMap<BigDecimal, L2OrderBook.Line> side = "sell".equals(change.getSide()) ? asks : bids;
+                BigDecimal price = new BigDecimal(change.getPrice());
+                BigDecimal size = new BigDecimal(change.getSize());
+                if (size.signum() == 0) {
+                    side.remove(price);
+                } else {
+                    side.put(price, new L2OrderBook.Line(price, size, change.getOrderCount()));
+                }
+            }
+            sequence = update.getSequence();
+            time = update.getTime();
+            snapshot = null;
+        }
+    }
+
+    private class CachedTicker {
+        private final String productId;
+        private boolean loaded;
+        private TickerFeedMessage message;
+        private TextMessage frame;
+        private CompletableFuture<TextMessage> loading;
+
+        private CachedTicker(String productId) {
+            this.productId = productId;
+        }
+
+        /**
+         * A ticker that arrives in the meantime is kept, the one read is only used if it is newer.
+         */
+        private synchronized CompletableFuture<TextMessage> getFrame() {
+            if (loaded) {
+                return CompletableFuture.completedFuture(frame());
+            }
+            if (loading == null) {
+                CompletableFuture<Ticker> read = new CompletableFuture<>();
+                loading = read.handle(this::load);
+                loader.execute(() -> {
+                    try {
+                        read.complete(tickerManager.getTicker(productId));
+                    } catch (Throwable e) {
+                        read.completeExceptionally(e);
+                    }
+                });
+            }
+            return loading;
+        }
+
+        private synchronized TextMessage load(Ticker ticker, Throwable e) {
+            loading = null;
+            if (e != null) {
+                logger.error("read ticker error: productId={} {}", productId, e.getMessage(), e);
+                return null;
+            }
+            if (ticker == null) {
+                return null;
+            }
+            if (message == null || ticker.getTradeId() > message.getTradeId()) {
+                message = new TickerFeedMessage(ticker);
+                frame = null;
+            }
+            loaded = true;
+            return frame();
+        }
+
+        private TextMessage frame() {
+            if (frame == null && message != null) {
+                frame = new TextMessage(JSON.toJSONString(message));
+            }
+            return frame;
+        }
+
+        private synchronized void update(TickerFeedMessage message) {
+            if (this.message == null || message.getTradeId() >= this.message.getTradeId()) {
+                this.message = message;
+                this.frame = null;
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.alibaba.fastjson.JSON;
 import com.gitbitex.feed.message.Request;
 import com.gitbitex.feed.message.SubscribeRequest;
 import com.gitbitex.feed.message.UnsubscribeRequest;
+import com.gitbitex.marketdata.orderbook.L2OrderBook;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import org.springframework.stereotype.Component;
@@ -19,6 +20,7 @@ public class FeedTextWebSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        sessionManager.openSession(session);
     }
 
     @Override
@@ -34,8 +36,12 @@ public class FeedTextWebSocketHandler extends TextWebSocketHandler {
         switch (request.getType()) {
             case "subscribe": {
                 SubscribeRequest subscribeRequest = JSON.parseObject(message.getPayload(), SubscribeRequest.class);
+                if (Boolean.TRUE.equals(subscribeRequest.getBatchFrames())) {
+                    sessionManager.enableFrameBatching(session);
+                }
                 sessionManager.subOrUnSub(session, subscribeRequest.getProductIds(), subscribeRequest.getCurrencyIds(),
-                        subscribeRequest.getChannels(), true);
+                        subscribeRequest.getChannels(), L2OrderBook.aggregation(subscribeRequest.getAggregation()),
+                        subscribeRequest.getThrottleMs(), true);
                 break;
             }
             case "unsubscribe": {
@@ -43,7 +49,8 @@ public class FeedTextWebSocketHandler extends TextWebSocketHandler {
                         UnsubscribeRequest.class);
                 sessionManager.subOrUnSub(session, unsubscribeRequest.getProductIds(),
                         unsubscribeRequest.getCurrencyIds(),
-                        unsubscribeRequest.getChannels(), false);
+                        unsubscribeRequest.getChannels(), L2OrderBook.aggregation(unsubscribeRequest.getAggregation()),
+                        null, false);
                 break;
             }
             case "ping":
@@ -0,0 +1,227 @@
+package com.gitbitex.feed;
+
+import com.gitbitex.marketdata.entity.User;
+import com.gitbitex.marketdata.manager.UserManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketServerFactory;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An alternative feed endpoint on a selector based websocket server, for connection counts the servlet container
+ * cannot hold with a thread per blocked write. Frames are written without blocking, speaking the same protocol as
+ * {@link FeedTextWebSocketHandler}, which handles the messages of both endpoints.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class NioFeedServer {
+    private static final int CONNECTION_LOST_TIMEOUT_SECONDS = 60;
+    private final FeedTextWebSocketHandler feedTextWebSocketHandler;
+    private final UserManager userManager;
+    private final FeedProperties feedProperties;
+    // looking up the user of a new connection must not stall the threads decoding other connections
+    private final ExecutorService sessionOpenExecutor = Executors.newFixedThreadPool(4);
+    private Server server;
+
+    @PostConstruct
+    public void start() {
+        if (!feedProperties.isNioEnabled()) {
+            return;
+        }
+        Draft draft = feedProperties.isNioPerMessageDeflate()
+                ? new Draft_6455(new PerMessageDeflateExtension())
+                : new Draft_6455();
+        server = new Server(new InetSocketAddress(feedProperties.getNioPort()), feedProperties.getNioWorkers(),
+                Collections.singletonList(draft));
+        server.setReuseAddr(true);
+        server.setTcpNoDelay(true);
+        server.setConnectionLostTimeout(CONNECTION_LOST_TIMEOUT_SECONDS);
+        server.setWebSocketFactory(new WriteNotifyingFactory());
+        server.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (server != null) {
+            server.stop();
+        }
+        sessionOpenExecutor.shutdown();
+    }
+
+    private void open(NioWebSocketSession session) {
+        try {
+            String accessToken = getAccessToken(session);
+            if (accessToken != null) {
+                User user = userManager.getUserByAccessToken(accessToken);
+                if (user != null) {
+                    session.getAttributes().put("CURRENT_USER_ID", user.getId());
+                }
+            }
+            feedTextWebSocketHandler.afterConnectionEstablished(session);
+        } catch (Exception e) {
+            logger.error("open websocket session error: {}", e.getMessage(), e);
+            session.close(CloseStatus.SERVER_ERROR);
+        }
+
+        List<String> messages;
+        while (!(messages = session.takePendingMessages()).isEmpty()) {
+            messages.forEach(message -> handleMessage(session, message));
+        }
+        if (!session.isOpen()) {
+            // closed while it was being opened
+            close(session, CloseStatus.NORMAL);
+        }
+    }
+
+    private void handleMessage(NioWebSocketSession session, String message) {
+        try {
+            feedTextWebSocketHandler.handleMessage(session, new TextMessage(message));
+        } catch (Exception e) {
+            logger.error("handle websocket message error: {}", e.getMessage(), e);
+        }
+    }
+
+    private void close(NioWebSocketSession session, CloseStatus status) {
+        try {
+            feedTextWebSocketHandler.afterConnectionClosed(session, status);
+        } catch (Exception e) {
+            logger.error("close websocket session error: {}", e.getMessage(), e);
+        }
+    }
+
+    private String getAccessToken(NioWebSocketSession session) {
+        String tokenKey = "accessToken";
+        String token = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst(tokenKey);
+        List<String> cookieHeaders = session.getHandshakeHeaders().get("Cookie");
+        if (token == null && cookieHeaders != null) {
+            for (String cookieHeader : cookieHeaders) {
+                for (String cookie : cookieHeader.split(";")) {
+                    List<HttpCookie> cookies = HttpCookie.parse(cookie.trim());
+                    if (!cookies.isEmpty() && cookies.get(0).getName().equals(tokenKey)) {
+                        token = cookies.get(0).getValue();
+                    }
+                }
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Tells the session of a connection whenever the selector wrote to it, so that a send loop waiting for room in
+     * the send buffer is resumed without polling.
+     */
+    private static class WriteNotifyingFactory implements WebSocketServerFactory {
+        @Override
+        public WebSocketImpl createWebSocket(WebSocketAdapter adapter, Draft draft) {
+            return new WebSocketImpl(adapter, draft);
+        }
+
+        @Override
+        public WebSocketImpl createWebSocket(WebSocketAdapter adapter, List<Draft> drafts) {
+            return new WebSocketImpl(adapter, drafts);
+        }
+
+        @Override
+        public ByteChannel wrapChannel(SocketChannel channel, SelectionKey key) {
+            WebSocketImpl connection = (WebSocketImpl) key.attachment();
+            return new ByteChannel() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    return channel.read(dst);
+                }
+
+                @Override
+                public int write(ByteBuffer src) throws IOException {
+                    int written = channel.write(src);
+                    if (connection.getAttachment() instanceof NioWebSocketSession session) {
+                        session.written();
+                    }
+                    return written;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return channel.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private class Server extends WebSocketServer {
+        private Server(InetSocketAddress address, int workers, List<Draft> drafts) {
+            super(address, workers, drafts);
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            NioWebSocketSession session = new NioWebSocketSession(conn, handshake,
+                    feedProperties.getNioSendBufferFrames());
+            conn.setAttachment(session);
+            sessionOpenExecutor.execute(() -> open(session));
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            NioWebSocketSession session = conn.getAttachment();
+            if (session != null) {
+                // the library reports connections that failed before the closing handshake with negative codes
+                close(session, code >= 1000 && code <= 4999
+                        ? new CloseStatus(code, reason)
+                        : CloseStatus.NO_CLOSE_FRAME);
+            }
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            NioWebSocketSession session = conn.getAttachment();
+            if (session != null && !session.holdUntilOpen(message)) {
+                handleMessage(session, message);
+            }
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+            logger.error("websocket error: {}", ex.getMessage(), ex);
+        }
+
+        @Override
+        public void onStart() {
+            logger.info("non-blocking feed server started on port {}", getPort());
+        }
+    }
+}
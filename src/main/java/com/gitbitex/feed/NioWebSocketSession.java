@@ -0,0 +1,208 @@
+package com.gitbitex.feed;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Presents a connection of the non-blocking server as a Spring {@link WebSocketSession}, so that the feed handler and
+ * {@link SessionManager} serve both transports the same way.
+ */
+public class NioWebSocketSession implements WebSocketSession, NonBlockingSession {
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong();
+    private final String id = "nio-" + ID_SEQUENCE.incrementAndGet();
+    private final WebSocket connection;
+    private final URI uri;
+    private final HttpHeaders handshakeHeaders = new HttpHeaders();
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final int sendBufferFrames;
+    private final AtomicReference<Runnable> writableCallback = new AtomicReference<>();
+    private int textMessageSizeLimit;
+    private int binaryMessageSizeLimit;
+    // messages that arrive while the session is being opened, null once it is open
+    private List<String> pendingMessages = new ArrayList<>();
+
+    public NioWebSocketSession(WebSocket connection, ClientHandshake handshake, int sendBufferFrames) {
+        this.connection = connection;
+        this.uri = URI.create(handshake.getResourceDescriptor());
+        this.sendBufferFrames = sendBufferFrames;
+        for (Iterator<String> it = handshake.iterateHttpFields(); it.hasNext(); ) {
+            String name = it.next();
+            handshakeHeaders.add(name, handshake.getFieldValue(name));
+        }
+    }
+
+    /**
+     * Holds the message back if the session is not open yet. Returns false if it is, and the message should be
+     * handled right away.
+     */
+    public synchronized boolean holdUntilOpen(String message) {
+        if (pendingMessages == null) {
+            return false;
+        }
+        pendingMessages.add(message);
+        return true;
+    }
+
+    /**
+     * Returns the messages held back so far. Once there are none left the session counts as open, so messages keep
+     * their order even when they arrive while earlier ones are being handled.
+     */
+    public synchronized List<String> takePendingMessages() {
+        List<String> messages = pendingMessages;
+        if (messages == null || messages.isEmpty()) {
+            pendingMessages = null;
+            return Collections.emptyList();
+        }
+        pendingMessages = new ArrayList<>();
+        return messages;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return !(connection instanceof WebSocketImpl impl) || impl.outQueue.size() < sendBufferFrames;
+    }
+
+    @Override
+    public void onWritable(Runnable callback) {
+        writableCallback.set(callback);
+        if (isWritable()) {
+            fireWritable();
+        }
+    }
+
+    /**
+     * Called by the selector thread whenever it wrote to the connection. The frame being written is still queued at
+     * that point, hence the extra frame allowed.
+     */
+    void written() {
+        if (writableCallback.get() != null && (!(connection instanceof WebSocketImpl impl)
+                || impl.outQueue.size() <= sendBufferFrames)) {
+            fireWritable();
+        }
+    }
+
+    private void fireWritable() {
+        Runnable callback = writableCallback.getAndSet(null);
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    /**
+     * The frames are queued on the connection together, so the selector is woken up once for the whole batch.
+     */
+    @Override
+    public void sendMessages(List<TextMessage> messages) throws IOException {
+        List<Framedata> frames = new ArrayList<>();
+        for (TextMessage message : messages) {
+            frames.addAll(connection.getDraft().createFrames(message.getPayload(), false));
+        }
+        try {
+            connection.sendFrame(frames);
+        } catch (WebsocketNotConnectedException e) {
+            throw new IOException("websocket not connected: " + id, e);
+        }
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (!(message instanceof TextMessage textMessage)) {
+            throw new IOException("unsupported message type: " + message.getClass().getSimpleName());
+        }
+        sendMessages(Collections.singletonList(textMessage));
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public URI getUri() {
+        return uri;
+    }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {
+        return handshakeHeaders;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.getLocalSocketAddress();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.getRemoteSocketAddress();
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+        return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {
+        this.textMessageSizeLimit = messageSizeLimit;
+    }
+
+    @Override
+    public int getTextMessageSizeLimit() {
+        return textMessageSizeLimit;
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        this.binaryMessageSizeLimit = messageSizeLimit;
+    }
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+        return binaryMessageSizeLimit;
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return connection.isOpen();
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        connection.close(status.getCode(), status.getReason());
+    }
+}
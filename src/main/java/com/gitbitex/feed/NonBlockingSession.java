@@ -0,0 +1,25 @@
+package com.gitbitex.feed;
+
+import org.springframework.web.socket.TextMessage;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A session whose transport buffers writes instead of blocking. Frames are only handed to it while it is writable,
+ * so that a slow client backs up in its {@link FeedSession} queue, where it is bounded.
+ */
+public interface NonBlockingSession {
+    boolean isWritable();
+
+    /**
+     * Runs the callback once, as soon as the session is writable again, or right away if it already is. Only one
+     * callback is waiting at a time.
+     */
+    void onWritable(Runnable callback);
+
+    /**
+     * Writes the frames in one go.
+     */
+    void sendMessages(List<TextMessage> messages) throws IOException;
+}
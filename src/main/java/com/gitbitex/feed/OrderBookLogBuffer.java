@@ -0,0 +1,81 @@
+package com.gitbitex.feed;
+
+import com.alibaba.fastjson.JSON;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the most recent full channel messages of each product, so that a new subscriber can be replayed everything
+ * after the latest level3 snapshot and join the live stream without a gap.
+ */
+@Component
+@Slf4j
+public class OrderBookLogBuffer {
+    private static final int CAPACITY = 20000;
+    private final ConcurrentHashMap<String, ArrayDeque<Entry>> entriesByProductId = new ConcurrentHashMap<>();
+
+    /**
+     * Appends the entries and then runs the callback while holding the product's lock, so that no subscriber can
+     * join between the two.
+     */
+    public void append(String productId, List<Entry> entries, Runnable callback) {
+        ArrayDeque<Entry> buffer = entriesByProductId.computeIfAbsent(productId, k -> new ArrayDeque<>());
+        synchronized (buffer) {
+            for (Entry entry : entries) {
+                if (!buffer.isEmpty() && entry.getPrevSequence() != buffer.getLast().getSequence()) {
+                    logger.warn("order book log gap: productId={} prevSequence={} lastSequence={}", productId,
+                            entry.getPrevSequence(), buffer.getLast().getSequence());
+                    buffer.clear();
+                }
+                buffer.addLast(entry);
+                if (buffer.size() > CAPACITY) {
+                    buffer.removeFirst();
+                }
+            }
+            callback.run();
+        }
+    }
+
+    /**
+     * Passes the buffered entries newer than the given sequence to the callback while holding the product's lock.
+     * The callback subscribes the session and queues the replay, so live entries can only be queued after it.
+     */
+    public void join(String productId, long sequence, Consumer<List<Entry>> callback) {
+        ArrayDeque<Entry> buffer = entriesByProductId.computeIfAbsent(productId, k -> new ArrayDeque<>());
+        synchronized (buffer) {
+            List<Entry> entries = new ArrayList<>();
+            for (Entry entry : buffer) {
+                if (entry.getSequence() > sequence) {
+                    entries.add(entry);
+                }
+            }
+            callback.accept(entries);
+        }
+    }
+
+    /**
+     * The message is encoded once here and the frame is shared by every session it is sent to.
+     */
+    @Getter
+    public static class Entry {
+        private final long sequence;
+        private final long prevSequence;
+        private final Object message;
+        private final TextMessage frame;
+
+        public Entry(long sequence, long prevSequence, Object message) {
+            this.sequence = sequence;
+            this.prevSequence = prevSequence;
+            this.message = message;
+            this.frame = new TextMessage(JSON.toJSONString(message));
+        }
+    }
+}
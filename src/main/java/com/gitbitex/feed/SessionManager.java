@@ -1,114 +1,162 @@
 package com.gitbitex.feed;
 
 import com.alibaba.fastjson.JSON;
-import com.gitbitex.feed.message.L2SnapshotFeedMessage;
+import com.gitbitex.AppProperties;
+import com.gitbitex.VirtualThreads;
+import com.gitbitex.feed.message.CandleFeedMessage;
 import com.gitbitex.feed.message.L2UpdateFeedMessage;
 import com.gitbitex.feed.message.PongFeedMessage;
 import com.gitbitex.feed.message.TickerFeedMessage;
-import com.gitbitex.marketdata.entity.Ticker;
-import com.gitbitex.marketdata.manager.TickerManager;
-import com.gitbitex.marketdata.orderbook.L2OrderBook;
-import com.gitbitex.marketdata.orderbook.L2OrderBookChange;
-import com.gitbitex.marketdata.orderbook.OrderBookSnapshotManager;
-import com.gitbitex.stripexecutor.StripedExecutorService;
+import com.gitbitex.marketdata.orderbook.L2OrderBookUpdate;
+import com.gitbitex.stripexecutor.HashedStripedExecutor;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
 
-import java.io.IOException;
+import javax.annotation.PostConstruct;
+import javax.websocket.Session;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 @Slf4j
 @RequiredArgsConstructor
 public class SessionManager {
-    private final ConcurrentHashMap<String, ConcurrentSkipListSet<String>> sessionIdsByChannel
-            = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, ConcurrentSkipListSet<String>> channelsBySessionId
-            = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, WebSocketSession> sessionById = new ConcurrentHashMap<>();
-    private final OrderBookSnapshotManager orderBookSnapshotManager;
-    private final TickerManager tickerManager;
-    private final StripedExecutorService messageSenderExecutor =
-            new StripedExecutorService(Runtime.getRuntime().availableProcessors());
+    private static final String BLOCKING_SEND_TIMEOUT_PROPERTY = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+    private final SubscriptionRegistry subscriptionRegistry = new SubscriptionRegistry();
+    private final ChannelThrottler channelThrottler = new ChannelThrottler(this::deliver, this::hasSubscribers);
+    private final ConcurrentHashMap<String, FeedSession> feedSessionById = new ConcurrentHashMap<>();
+    // sessions that subscribed to private channels, tells the feed which users' events are worth reading
+    private final ConcurrentHashMap<String, Set<FeedSession>> privateSessionsByUserId = new ConcurrentHashMap<>();
+    // changes whenever the users or products the feed has to read may have changed
+    private final AtomicLong feedInterestVersion = new AtomicLong();
+    private final OrderBookLogBuffer orderBookLogBuffer;
+    private final FeedSnapshotCache feedSnapshotCache;
+    private final FeedProperties feedProperties;
+    private final FeedSessionMetrics feedSessionMetrics;
+    private final AppProperties appProperties;
+    private final HashedStripedExecutor messageSenderExecutor =
+            new HashedStripedExecutor("FeedMessageSender", Runtime.getRuntime().availableProcessors());
+    // hands the queued frames of the sessions to their transports, which write them asynchronously
+    private final ScheduledExecutorService frameSenderTimer =
+            Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+    private Executor frameSenderExecutor;
 
+    /**
+     * With virtual threads every send loop runs on a thread of its own, so a blocking write costs no pool thread.
+     */
+    @PostConstruct
+    public void init() {
+        if (appProperties.isVirtualThreadsEnabled()) {
+            frameSenderExecutor = VirtualThreads.newThreadPerTaskExecutor("feed-sender-");
+        } else {
+            frameSenderExecutor = frameSenderTimer;
+        }
+    }
+
+    /**
+     * The plain channels of a request are subscribed or unsubscribed in one batch, the initial snapshots and tickers
+     * are sent once the session is subscribed so that no update can be missed in between.
+     *
+     * @param aggregation price step of the level2 book to subscribe to, null for full precision
+     * @param throttleMs  minimum time between two ticker or level2 messages, null to get every message
+     */
     @SneakyThrows
     public void subOrUnSub(WebSocketSession session, List<String> productIds, List<String> currencies,
-                           List<String> channels, boolean isSub) {
+                           List<String> channels, String aggregation, Integer throttleMs, boolean isSub) {
+        FeedSession feedSession = feedSessionById.get(session.getId());
+        if (feedSession == null) {
+            return;
+        }
+
+        Integer interval = throttleMs != null && throttleMs > 0 ? ChannelThrottler.normalizeInterval(throttleMs) : null;
+        List<String> channelNames = new ArrayList<>();
+        List<Runnable> initialMessages = new ArrayList<>();
+        Map<String, Integer> throttledChannels = new HashMap<>();
+        List<String> replacedChannels = new ArrayList<>();
         for (String channel : channels) {
             switch (channel) {
                 case "level2":
                     for (String productId : productIds) {
-                        String productChannel = productId + "." + channel;
-
+                        String productChannel = sessionChannel(session, l2Channel(productId, aggregation), interval,
+                                isSub, throttledChannels, replacedChannels);
+                        channelNames.add(productChannel);
                         if (isSub) {
-                            subscribeChannel(session, productChannel);
-                            sendL2OrderBookSnapshot(session, productId);
+                            initialMessages.add(() -> sendL2OrderBookSnapshot(feedSession, productChannel, productId,
+                                    aggregation));
                         } else {
-                            String key = "LAST_L2_ORDER_BOOK:" + productId;
-                            session.getAttributes().remove(key);
-                            unsubscribeChannel(session, productChannel);
+                            session.getAttributes().remove(l2SequenceKey(productChannel));
                         }
                     }
                     break;
                 case "ticker":
                     for (String productId : productIds) {
-                        String productChannel = productId + "." + channel;
-
+                        String productChannel = sessionChannel(session, productId + "." + channel, interval, isSub,
+                                throttledChannels, replacedChannels);
+                        channelNames.add(productChannel);
                         if (isSub) {
-                            subscribeChannel(session, productChannel);
-                            sendTicker(session, productId);
-                        } else {
-                            unsubscribeChannel(session, productChannel);
+                            initialMessages.add(() -> sendTicker(feedSession, productChannel, productId));
                         }
                     }
                     break;
-                case "match":
+                case "full":
                     for (String productId : productIds) {
                         String productChannel = productId + "." + channel;
                         if (isSub) {
-                            subscribeChannel(session, productChannel);
+                            // subscribes on its own, the replay has to be queued in the same step
+                            joinOrderBookLog(feedSession, productId, productChannel);
                         } else {
-                            unsubscribeChannel(session, productChannel);
+                            session.getAttributes().remove(orderBookLogSequenceKey(productId));
+                            channelNames.add(productChannel);
                         }
                     }
                     break;
+                case "match":
+                    for (String productId : productIds) {
+                        channelNames.add(productId + "." + channel);
+                    }
+                    break;
                 case "order": {
                     String userId = getUserId(session);
                     if (userId == null) {
-                        return;
+                        break;
                     }
 
+                    if (isSub) {
+                        addPrivateSession(userId, feedSession);
+                    }
                     for (String productId : productIds) {
-                        String orderChanel = userId + "." + productId + "." + channel;
-                        if (isSub) {
-                            subscribeChannel(session, orderChanel);
-                        } else {
-                            unsubscribeChannel(session, orderChanel);
-                        }
+                        channelNames.add(userId + "." + productId + "." + channel);
                     }
                     break;
                 }
                 case "funds": {
                     String userId = getUserId(session);
                     if (userId == null) {
-                        return;
+                        break;
                     }
 
+                    if (isSub) {
+                        addPrivateSession(userId, feedSession);
+                    }
                     if (currencies != null) {
                         for (String currency : currencies) {
-                            String accountChannel = userId + "." + currency + "." + channel;
-                            if (isSub) {
-                                subscribeChannel(session, accountChannel);
-                            } else {
-                                unsubscribeChannel(session, accountChannel);
-                            }
+                            channelNames.add(userId + "." + currency + "." + channel);
                         }
                     }
                     break;
@@ -117,134 +165,360 @@ public class SessionManager {
                 default:
             }
         }
+
+        if (isSub) {
+            subscriptionRegistry.unsubscribe(feedSession, replacedChannels);
+            subscriptionRegistry.subscribe(feedSession, channelNames);
+            throttledChannels.forEach(channelThrottler::register);
+            initialMessages.forEach(Runnable::run);
+        } else {
+            subscriptionRegistry.unsubscribe(feedSession, channelNames);
+            String userId = getUserId(session);
+            if (userId != null && (channels.contains("order") || channels.contains("funds"))
+                    && !subscriptionRegistry.isSubscribed(feedSession, x -> isPrivateChannel(userId, x))) {
+                removePrivateSession(userId, feedSession);
+            }
+        }
+        if (channels.contains("match")) {
+            feedInterestVersion.incrementAndGet();
+        }
+    }
+
+    private static boolean isPrivateChannel(String userId, String channel) {
+        return channel.startsWith(userId + ".") && (channel.endsWith(".order") || channel.endsWith(".funds"));
     }
 
     public void broadcast(String channel, Object message) {
-        Set<String> sessionIds = sessionIdsByChannel.get(channel);
-        if (sessionIds == null || sessionIds.isEmpty()) {
+        channelThrottler.offer(channel, message);
+        deliver(channel, message);
+    }
+
+    /**
+     * Returns the name the session subscribes to for the channel. Throttled subscriptions get their own name, which
+     * is remembered so that unsubscribing does not need the interval again. Subscribing again at another rate
+     * replaces the earlier subscription.
+     */
+    private String sessionChannel(WebSocketSession session, String channel, Integer interval, boolean isSub,
+                                  Map<String, Integer> throttledChannels, List<String> replacedChannels) {
+        String key = "THROTTLED_CHANNEL:" + channel;
+        Object previous = session.getAttributes().remove(key);
+        String previousChannel = previous != null ? previous.toString() : channel;
+        if (!isSub) {
+            return previousChannel;
+        }
+
+        String sessionChannel = channel;
+        if (interval != null) {
+            sessionChannel = ChannelThrottler.throttledChannel(channel, interval);
+            session.getAttributes().put(key, sessionChannel);
+            throttledChannels.put(channel, interval);
+        }
+        if (!previousChannel.equals(sessionChannel)) {
+            replacedChannels.add(previousChannel);
+            session.getAttributes().remove(l2SequenceKey(previousChannel));
+        }
+        return sessionChannel;
+    }
+
+    private void deliver(String channel, Object message) {
+        FeedSession[] sessions = subscriptionRegistry.getSessions(channel);
+        if (sessions.length == 0) {
             return;
         }
 
-        sessionIds.forEach(sessionId -> {
-            messageSenderExecutor.execute(sessionId, () -> {
+        // encode once, every subscriber is sent the same frame
+        TextMessage frame = new TextMessage(JSON.toJSONString(message instanceof L2OrderBookUpdate update
+                ? new L2UpdateFeedMessage(update) : message));
+        // only the latest ticker or candle matters to a client that is behind
+        String conflationKey = message instanceof TickerFeedMessage || message instanceof CandleFeedMessage
+                ? channel : null;
+        for (FeedSession session : sessions) {
+            messageSenderExecutor.execute(session.getId(), () -> {
                 try {
-                    WebSocketSession session = sessionById.get(sessionId);
-                    if (session == null) {
-                        return;
-                    }
-                    if (message instanceof L2OrderBook) {
-                        doSendL2OrderBook(session, (L2OrderBook) message);
+                    if (message instanceof L2OrderBookUpdate update) {
+                        doSendL2Update(session, channel, update, frame);
                     } else {
-                        doSendJson(session, message);
+                        doSend(session, frame, conflationKey, conflationKey != null);
                     }
                 } catch (Exception e) {
                     logger.error("send error: {}", e.getMessage());
                 }
             });
+        }
+    }
+
+    public void broadcastOrderBookLog(String productId, List<OrderBookLogBuffer.Entry> entries) {
+        for (FeedSession session : subscriptionRegistry.getSessions(productId + ".full")) {
+            sendOrderBookLog(session, productId, entries);
+        }
+    }
+
+    /**
+     * Subscribes the session to the full channel and replays what happened after the latest level3 snapshot, so the
+     * client can apply the stream on top of that snapshot without a gap.
+     */
+    private void joinOrderBookLog(FeedSession session, String productId, String channel) {
+        feedSnapshotCache.getL3OrderBookHeader(productId).thenAccept(header -> {
+            long sequence = header != null ? header.getSequence() : Long.MAX_VALUE;
+            orderBookLogBuffer.join(productId, sequence, entries -> {
+                subscriptionRegistry.subscribe(session, List.of(channel));
+                sendOrderBookLog(session, productId, entries);
+            });
         });
     }
 
-    private void sendL2OrderBookSnapshot(WebSocketSession session, String productId) {
+    private void sendOrderBookLog(FeedSession session, String productId, List<OrderBookLogBuffer.Entry> entries) {
         messageSenderExecutor.execute(session.getId(), () -> {
-            try {
-                L2OrderBook l2OrderBook = orderBookSnapshotManager.getL2BatchOrderBook(productId);
-                if (l2OrderBook != null) {
-                    doSendL2OrderBook(session, l2OrderBook);
+            String key = orderBookLogSequenceKey(productId);
+            Long lastSequence = (Long) session.getSession().getAttributes().get(key);
+            for (OrderBookLogBuffer.Entry entry : entries) {
+                // the replay and the live stream may overlap
+                if (lastSequence != null && entry.getSequence() <= lastSequence) {
+                    continue;
                 }
-            } catch (Exception e) {
-                logger.error("send level2 snapshot error: {}", e.getMessage(), e);
+                if (!doSend(session, entry.getFrame(), null, true)) {
+                    return;
+                }
+                lastSequence = entry.getSequence();
+            }
+            if (lastSequence != null) {
+                session.getSession().getAttributes().put(key, lastSequence);
             }
         });
     }
 
-    private void doSendL2OrderBook(WebSocketSession session, L2OrderBook l2OrderBook) throws IOException {
-        String key = "LAST_L2_ORDER_BOOK:" + l2OrderBook.getProductId();
+    private String orderBookLogSequenceKey(String productId) {
+        return "FULL_SEQUENCE:" + productId;
+    }
 
-        if (!session.getAttributes().containsKey(key)) {
-            doSendJson(session, new L2SnapshotFeedMessage(l2OrderBook));
-            session.getAttributes().put(key, l2OrderBook);
-            return;
+    /**
+     * Sends the snapshot once it is in memory. A snapshot read from redis is sent from the session's stripe when the
+     * read completes, the stripe does not wait for it.
+     */
+    private void sendL2OrderBookSnapshot(FeedSession session, String channel, String productId, String aggregation) {
+        feedSnapshotCache.getL2Snapshot(productId, aggregation).thenAccept(snapshot -> {
+            if (snapshot == null) {
+                return;
+            }
+            messageSenderExecutor.execute(session.getId(), () -> {
+                try {
+                    doSendL2OrderBookSnapshot(session, channel, snapshot);
+                } catch (Exception e) {
+                    logger.error("send level2 snapshot error: {}", e.getMessage(), e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Sends the snapshot unless the session has left the channel or already has the book at the same or a later
+     * sequence, which an update may have resynced it to while the snapshot was being read.
+     */
+    private boolean doSendL2OrderBookSnapshot(FeedSession session, String channel,
+                                              FeedSnapshotCache.L2Snapshot snapshot) {
+        String sequenceKey = l2SequenceKey(channel);
+        Long lastSequence = (Long) session.getSession().getAttributes().get(sequenceKey);
+        if ((lastSequence != null && lastSequence >= snapshot.sequence())
+                || !subscriptionRegistry.isSubscribed(session, channel::equals)) {
+            return false;
+        }
+        if (!doSend(session, snapshot.frame(), null, true)) {
+            return false;
         }
+        session.getSession().getAttributes().put(sequenceKey, snapshot.sequence());
+        return true;
+    }
 
-        L2OrderBook lastL2OrderBook = (L2OrderBook) session.getAttributes().get(key);
-        if (lastL2OrderBook.getSequence() >= l2OrderBook.getSequence()) {
-            logger.warn("discard l2 order book, too old: last={} new={}", lastL2OrderBook.getSequence(),
-                    l2OrderBook.getSequence());
+    /**
+     * Forwards the update if it follows the last snapshot or update the session has seen, otherwise resyncs the
+     * session with a fresh snapshot. If the book is not in memory, the update is skipped and the session resyncs
+     * once it has been read.
+     * <p>
+     * A merged update of a throttled channel may start before the book the session has, when the session was
+     * resynced to a snapshot taken between two flushes. Its changes are the latest sizes of their levels, so it
+     * still applies on top of any book within its range and is forwarded as well.
+     */
+    private void doSendL2Update(FeedSession session, String channel, L2OrderBookUpdate update, TextMessage frame) {
+        String sequenceKey = l2SequenceKey(channel);
+        Long lastSequence = (Long) session.getSession().getAttributes().get(sequenceKey);
+        if (lastSequence != null && update.getSequence() <= lastSequence) {
             return;
         }
+        if (lastSequence == null || update.getPrevSequence() > lastSequence) {
+            session.getSession().getAttributes().remove(sequenceKey);
+            CompletableFuture<FeedSnapshotCache.L2Snapshot> loading =
+                    feedSnapshotCache.getL2Snapshot(update.getProductId(), update.getAggregation());
+            if (!loading.isDone()) {
+                if (session.getSession().getAttributes().putIfAbsent(l2ResyncKey(channel), Boolean.TRUE) == null) {
+                    loading.whenComplete((snapshot, e) -> messageSenderExecutor.execute(session.getId(), () -> {
+                        session.getSession().getAttributes().remove(l2ResyncKey(channel));
+                        if (snapshot != null) {
+                            doSendL2OrderBookSnapshot(session, channel, snapshot);
+                        }
+                    }));
+                }
+                return;
+            }
+            FeedSnapshotCache.L2Snapshot snapshot = loading.join();
+            if (snapshot == null || !doSendL2OrderBookSnapshot(session, channel, snapshot)
+                    || snapshot.sequence() < update.getPrevSequence() || snapshot.sequence() >= update.getSequence()) {
+                return;
+            }
+        }
 
-        List<L2OrderBookChange> changes = lastL2OrderBook.diff(l2OrderBook);
-        if (changes != null && !changes.isEmpty()) {
-            L2UpdateFeedMessage l2UpdateFeedMessage = new L2UpdateFeedMessage(l2OrderBook.getProductId(), changes);
-            doSendJson(session, l2UpdateFeedMessage);
+        if (doSend(session, frame, null, true)) {
+            session.getSession().getAttributes().put(sequenceKey, update.getSequence());
         }
+    }
 
-        session.getAttributes().put(key, l2OrderBook);
+    public static String l2Channel(String productId, String aggregation) {
+        return aggregation != null ? productId + ".level2@" + aggregation : productId + ".level2";
     }
 
-    private void sendTicker(WebSocketSession session, String productId) {
-        messageSenderExecutor.execute(session.getId(), () -> {
-            try {
-                Ticker ticker = tickerManager.getTicker(productId);
-                if (ticker != null) {
-                    doSendJson(session, new TickerFeedMessage(ticker));
-                }
-            } catch (Exception e) {
-                logger.error("send ticker error: {}", e.getMessage(), e);
+    private String l2SequenceKey(String channel) {
+        return "L2_SEQUENCE:" + channel;
+    }
+
+    private String l2ResyncKey(String channel) {
+        return "L2_RESYNC:" + channel;
+    }
+
+    private void sendTicker(FeedSession session, String channel, String productId) {
+        feedSnapshotCache.getTickerFrame(productId).thenAccept(frame -> {
+            if (frame == null) {
+                return;
             }
+            messageSenderExecutor.execute(session.getId(), () -> {
+                try {
+                    doSend(session, frame, channel, true);
+                } catch (Exception e) {
+                    logger.error("send ticker error: {}", e.getMessage(), e);
+                }
+            });
         });
     }
 
     public void sendPong(WebSocketSession session) {
+        FeedSession feedSession = feedSessionById.get(session.getId());
+        if (feedSession == null) {
+            return;
+        }
         messageSenderExecutor.execute(session.getId(), () -> {
             try {
                 PongFeedMessage pongFeedMessage = new PongFeedMessage();
                 pongFeedMessage.setType("pong");
-                session.sendMessage(new TextMessage(JSON.toJSONString(pongFeedMessage)));
+                doSendJson(feedSession, pongFeedMessage);
             } catch (Exception e) {
                 logger.error("send pong error: {}", e.getMessage());
             }
         });
     }
 
-    private void doSendJson(WebSocketSession session, Object msg) {
-        try {
-            session.sendMessage(new TextMessage(JSON.toJSONString(msg)));
-        } catch (Exception e) {
-            logger.error("send websocket message error: {}", e.getMessage());
+    private boolean doSendJson(FeedSession session, Object msg) {
+        return doSend(session, new TextMessage(JSON.toJSONString(msg)), null, false);
+    }
+
+    /**
+     * Queues the frame for the session. Returns false if the session fell too far behind and its queue was dropped;
+     * the sequenced channels of the session then start over from a snapshot with their next message.
+     *
+     * @param resyncable whether the frame is a snapshot, belongs to a sequenced channel or is conflated, and so may
+     *                   be dropped
+     */
+    private boolean doSend(FeedSession session, TextMessage frame, String conflationKey, boolean resyncable) {
+        if (!session.send(frame, conflationKey, resyncable)) {
+            logger.warn("websocket session {} is too slow, resyncing", session.getId());
+            session.getSession().getAttributes().keySet().removeIf(x -> x.startsWith("L2_SEQUENCE:") ||
+                    x.startsWith("FULL_SEQUENCE:"));
+            return false;
         }
+        return true;
     }
 
-    private void subscribeChannel(WebSocketSession session, String channel) {
-        sessionIdsByChannel
-                .computeIfAbsent(channel, k -> new ConcurrentSkipListSet<>())
-                .add(session.getId());
-        channelsBySessionId.computeIfAbsent(session.getId(), k -> new ConcurrentSkipListSet<>())
-                .add(channel);
-        sessionById.put(session.getId(), session);
+    public void openSession(WebSocketSession session) {
+        if (session instanceof NativeWebSocketSession nativeSession) {
+            Session standardSession = nativeSession.getNativeSession(Session.class);
+            if (standardSession != null) {
+                standardSession.getUserProperties().put(BLOCKING_SEND_TIMEOUT_PROPERTY,
+                        feedProperties.getSendTimeoutMs());
+            }
+        }
+        feedSessionById.put(session.getId(), new FeedSession(session, feedSessionMetrics, frameSenderExecutor,
+                frameSenderTimer, feedProperties.getSessionQueueSize(), feedProperties.getSlowConsumerPolicy(),
+                feedProperties.getSendTimeoutMs()));
     }
 
-    public void unsubscribeChannel(WebSocketSession session, String channel) {
-        if (sessionIdsByChannel.containsKey(channel)) {
-            sessionIdsByChannel.get(channel).remove(session.getId());
+    /**
+     * From now on the session gets its messages in JSON array frames, see {@link FeedSession}.
+     */
+    public void enableFrameBatching(WebSocketSession session) {
+        FeedSession feedSession = feedSessionById.get(session.getId());
+        if (feedSession != null) {
+            feedSession.enableBatching(feedProperties.getBatchMaxBytes(), feedProperties.getBatchWindowMs());
         }
-        channelsBySessionId.computeIfPresent(session.getId(), (k, v) -> {
-            v.remove(channel);
-            return v;
-        });
     }
 
     public void removeSession(WebSocketSession session) {
-        ConcurrentSkipListSet<String> channels = channelsBySessionId.remove(session.getId());
-        if (channels != null) {
-            for (String channel : channels) {
-                ConcurrentSkipListSet<String> sessionIds = sessionIdsByChannel.get(channel);
-                if (sessionIds != null) {
-                    sessionIds.remove(session.getId());
-                }
+        FeedSession feedSession = feedSessionById.remove(session.getId());
+        if (feedSession != null) {
+            subscriptionRegistry.removeSession(feedSession);
+            String userId = getUserId(session);
+            if (userId != null) {
+                removePrivateSession(userId, feedSession);
             }
+            // the session may have been the last one of a match channel
+            feedInterestVersion.incrementAndGet();
+            feedSession.close(CloseStatus.NORMAL);
         }
-        sessionById.remove(session.getId());
+    }
+
+    public boolean hasSubscribers(String channel) {
+        return subscriptionRegistry.getSessions(channel).length != 0;
+    }
+
+    /**
+     * Whether a local session is subscribed to a private channel of the user.
+     */
+    public boolean isUserSubscribed(String userId) {
+        return privateSessionsByUserId.containsKey(userId);
+    }
+
+    /**
+     * Changes whenever {@link #getFeedKeys} may have changed.
+     */
+    public long getFeedInterestVersion() {
+        return feedInterestVersion.get();
+    }
+
+    /**
+     * The users with a session subscribed to a private channel and the products with match subscribers, whose
+     * partitions of the feed message topic this node has to read.
+     */
+    public Set<String> getFeedKeys() {
+        Set<String> keys = new HashSet<>(privateSessionsByUserId.keySet());
+        for (String channel : subscriptionRegistry.getChannelNames()) {
+            if (channel.endsWith(".match")) {
+                keys.add(channel.substring(0, channel.length() - ".match".length()));
+            }
+        }
+        return keys;
+    }
+
+    private void addPrivateSession(String userId, FeedSession feedSession) {
+        privateSessionsByUserId.compute(userId, (k, v) -> {
+            Set<FeedSession> sessions = v != null ? v : ConcurrentHashMap.newKeySet();
+            sessions.add(feedSession);
+            return sessions;
+        });
+        feedInterestVersion.incrementAndGet();
+    }
+
+    private void removePrivateSession(String userId, FeedSession feedSession) {
+        privateSessionsByUserId.computeIfPresent(userId, (k, v) -> {
+            v.remove(feedSession);
+            return v.isEmpty() ? null : v;
+        });
+        feedInterestVersion.incrementAndGet();
     }
 
     public String getUserId(WebSocketSession session) {
@@ -0,0 +1,17 @@
+package com.gitbitex.feed;
+
+public enum SlowConsumerPolicy {
+    /**
+     * Only the latest ticker or candle of a channel is kept while it waits; when the queue is still full, the same
+     * as {@link #DROP_AND_RESYNC}
+     */
+    CONFLATE,
+    /**
+     * Drops everything queued and makes the sequenced channels of the session start over from a snapshot
+     */
+    DROP_AND_RESYNC,
+    /**
+     * Closes the session
+     */
+    DISCONNECT,
+}
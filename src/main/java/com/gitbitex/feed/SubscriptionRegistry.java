@@ -0,0 +1,140 @@
+package com.gitbitex.feed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Which sessions are subscribed to which channel. Every channel name maps to one interned {@link Channel} holding its
+ * subscribers as an array that is replaced on change, so a broadcast is a single map lookup followed by a plain loop
+ * without locks or copies. Subscribing and unsubscribing are rare compared to broadcasts and pay for the copying.
+ */
+public class SubscriptionRegistry {
+    private static final FeedSession[] NO_SESSIONS = new FeedSession[0];
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Channel>> channelsBySessionId = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the current subscribers of the channel. The array must not be modified.
+     */
+    public FeedSession[] getSessions(String channel) {
+        Channel subscribers = channels.get(channel);
+        return subscribers != null ? subscribers.sessions : NO_SESSIONS;
+    }
+
+    /**
+     * Returns a live view of the channels that have subscribers.
+     */
+    public Set<String> getChannelNames() {
+        return channels.keySet();
+    }
+
+    /**
+     * Whether the session is subscribed to any channel the filter accepts.
+     */
+    public boolean isSubscribed(FeedSession session, Predicate<String> filter) {
+        Set<Channel> sessionChannels = channelsBySessionId.get(session.getId());
+        if (sessionChannels == null) {
+            return false;
+        }
+        for (Channel channel : sessionChannels) {
+            if (filter.test(channel.name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void subscribe(FeedSession session, Collection<String> channelNames) {
+        if (channelNames.isEmpty()) {
+            return;
+        }
+        Set<Channel> sessionChannels = channelsBySessionId.computeIfAbsent(session.getId(),
+                k -> ConcurrentHashMap.newKeySet());
+        for (String channelName : channelNames) {
+            while (true) {
+                Channel channel = channels.computeIfAbsent(channelName, Channel::new);
+                // the channel may have been retired by its last subscriber leaving in the meantime
+                if (channel.add(session)) {
+                    sessionChannels.add(channel);
+                    break;
+                }
+            }
+        }
+    }
+
+    public void unsubscribe(FeedSession session, Collection<String> channelNames) {
+        Set<Channel> sessionChannels = channelsBySessionId.get(session.getId());
+        if (sessionChannels == null) {
+            return;
+        }
+        List<Channel> removed = new ArrayList<>(channelNames.size());
+        for (Channel channel : sessionChannels) {
+            if (channelNames.contains(channel.name)) {
+                removed.add(channel);
+            }
+        }
+        for (Channel channel : removed) {
+            sessionChannels.remove(channel);
+            channel.remove(session);
+        }
+    }
+
+    public void removeSession(FeedSession session) {
+        Set<Channel> sessionChannels = channelsBySessionId.remove(session.getId());
+        if (sessionChannels != null) {
+            for (Channel channel : sessionChannels) {
+                channel.remove(session);
+            }
+        }
+    }
+
+    private class Channel {
+        private final String name;
+        private volatile FeedSession[] sessions = NO_SESSIONS;
+        private boolean retired;
+
+        private Channel(String name) {
+            this.name = name;
+        }
+
+        private synchronized boolean add(FeedSession session) {
+            if (retired) {
+                return false;
+            }
+            for (FeedSession subscriber : sessions) {
+                if (subscriber == session) {
+                    return true;
+                }
+            }
+            FeedSession[] copy = Arrays.copyOf(sessions, sessions.length + 1);
+            copy[sessions.length] = session;
+            sessions = copy;
+            return true;
+        }
+
+        private synchronized void remove(FeedSession session) {
+            FeedSession[] current = sessions;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == session) {
+                    if (current.length == 1) {
+                        // nobody is listening anymore, drop the channel so per-user channels do not pile up
+                        retired = true;
+                        sessions = NO_SESSIONS;
+                        channels.remove(name, this);
+                        return;
+                    }
+                    FeedSession[] copy = new FeedSession[current.length - 1];
+                    System.arraycopy(current, 0, copy, 0, i);
+                    System.arraycopy(current, i + 1, copy, i, current.length - i - 1);
+                    sessions = copy;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.gitbitex.feed;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
@@ -8,6 +9,7 @@ import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
 
 @Configuration
 @EnableWebSocket
+@EnableConfigurationProperties(FeedProperties.class)
 @RequiredArgsConstructor
 public class WebsocketConfig implements WebSocketConfigurer {
     private final FeedTextWebSocketHandler myHandler;
@@ -1,6 +1,7 @@
 package com.gitbitex.feed.message;
 
 import com.gitbitex.marketdata.orderbook.L2OrderBookChange;
+import com.gitbitex.marketdata.orderbook.L2OrderBookUpdate;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -11,6 +12,7 @@ import java.util.List;
  * {
  * "type": "l2update",
  * "product_id": "BTC-USD",
+ * "sequence": 10,
  * "time": "2019-08-14T20:42:27.265Z",
  * "changes": [
  * [
@@ -26,6 +28,8 @@ import java.util.List;
 public class L2UpdateFeedMessage {
     private String type = "l2update";
     private String productId;
+    private String aggregation;
+    private long sequence;
     private String time;
     private List<L2OrderBookChange> changes;
 
@@ -37,4 +41,12 @@ public class L2UpdateFeedMessage {
         this.time = new Date().toInstant().toString();
         this.changes = l2OrderBookChanges;
     }
+
+    public L2UpdateFeedMessage(L2OrderBookUpdate update) {
+        this.productId = update.getProductId();
+        this.aggregation = update.getAggregation();
+        this.sequence = update.getSequence();
+        this.time = new Date(update.getTime()).toInstant().toString();
+        this.changes = update.getChanges().stream().map(L2OrderBookChange::withoutOrderCount).toList();
+    }
 }
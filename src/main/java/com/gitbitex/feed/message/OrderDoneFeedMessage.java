@@ -22,6 +22,7 @@ public class OrderDoneFeedMessage {
     private String type = "done";
     private String productId;
     private long sequence;
+    private long prevSequence;
     private String orderId;
     private String remainingSize;
     private String price;
@@ -10,6 +10,7 @@ public class OrderMatchFeedMessage {
     private String productId;
     private long tradeId;
     private long sequence;
+    private long prevSequence;
     private String takerOrderId;
     private String makerOrderId;
     private String time;
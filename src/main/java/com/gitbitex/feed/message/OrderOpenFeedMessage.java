@@ -9,6 +9,7 @@ public class OrderOpenFeedMessage {
     private String type = "open";
     private String productId;
     private long sequence;
+    private long prevSequence;
     private String time;
     private String orderId;
     private String remainingSize;
@@ -10,6 +10,7 @@ public class OrderReceivedFeedMessage {
     private String time;
     private String productId;
     private long sequence;
+    private long prevSequence;
     private String orderId;
     private String size;
     private String price;
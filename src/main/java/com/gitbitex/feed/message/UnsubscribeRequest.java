@@ -3,6 +3,7 @@ package com.gitbitex.feed.message;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.math.BigDecimal;
 import java.util.List;
 
 @Getter
@@ -11,4 +12,8 @@ public class UnsubscribeRequest extends Request {
     private List<String> productIds;
     private List<String> currencyIds;
     private List<String> channels;
+    /**
+     * Price step of the level2 book, the full precision book if absent
+     */
+    private BigDecimal aggregation;
 }
@@ -0,0 +1,87 @@
+package com.gitbitex.marketdata;
+
+import com.gitbitex.AppProperties;
+import com.gitbitex.marketdata.orderbook.OpenOrderIndex;
+import com.gitbitex.matchingengine.Order;
+import com.gitbitex.matchingengine.Product;
+import com.gitbitex.matchingengine.message.Message;
+import com.gitbitex.matchingengine.message.OrderMessage;
+import com.gitbitex.matchingengine.snapshot.EngineSnapshotManager;
+import com.gitbitex.matchingengine.snapshot.EngineState;
+import com.gitbitex.middleware.kafka.KafkaConsumerThread;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Every process keeps its own open order index, so the partitions are assigned rather than subscribed through a
+ * consumer group.
+ */
+@Slf4j
+public class OpenOrderIndexThread extends KafkaConsumerThread<String, Message> {
+    private final OpenOrderIndex openOrderIndex;
+    private final EngineSnapshotManager stateStore;
+    private final AppProperties appProperties;
+    private long messageSequence;
+
+    public OpenOrderIndexThread(KafkaConsumer<String, Message> consumer, OpenOrderIndex openOrderIndex,
+                                EngineSnapshotManager engineSnapshotManager, AppProperties appProperties) {
+        super(consumer, logger);
+        this.openOrderIndex = openOrderIndex;
+        this.stateStore = engineSnapshotManager;
+        this.appProperties = appProperties;
+    }
+
+    @Override
+    protected void doSubscribe() {
+        List<TopicPartition> partitions = consumer.partitionsFor(appProperties.getMatchingEngineMessageTopic())
+                .stream()
+                .map(x -> new TopicPartition(x.topic(), x.partition()))
+                .toList();
+        // the engine state keeps a single message offset, it can only position a single partition
+        if (partitions.size() != 1) {
+            throw new IllegalStateException(String.format("topic %s must have exactly one partition, found %s",
+                    appProperties.getMatchingEngineMessageTopic(), partitions.size()));
+        }
+        consumer.assign(partitions);
+
+        openOrderIndex.setReady(false);
+        openOrderIndex.clear();
+        messageSequence = 0;
+        stateStore.runInSession(session -> {
+            EngineState engineState = stateStore.getEngineState(session);
+            if (engineState != null && engineState.getMessageOffset() != null) {
+                consumer.seek(partitions.get(0), engineState.getMessageOffset() + 1);
+                messageSequence = engineState.getMessageSequence() != null ? engineState.getMessageSequence() : 0;
+            } else {
+                consumer.seekToBeginning(partitions);
+            }
+
+            for (Product product : stateStore.getProducts(session)) {
+                for (Order order : stateStore.getOrders(session, product.getId())) {
+                    openOrderIndex.onOrder(order);
+                }
+            }
+        });
+        openOrderIndex.setReady(true);
+        logger.info("open order index restored: messageSequence={}", messageSequence);
+    }
+
+    @Override
+    protected void doPoll() {
+        var records = consumer.poll(Duration.ofSeconds(5));
+        records.forEach(x -> {
+            Message message = x.value();
+            if (message.getSequence() <= messageSequence) {
+                return;
+            }
+            messageSequence = message.getSequence();
+            if (message instanceof OrderMessage orderMessage) {
+                openOrderIndex.onOrder(orderMessage.getOrder());
+            }
+        });
+    }
+}
@@ -2,40 +2,74 @@ package com.gitbitex.marketdata;
 
 import com.gitbitex.AppProperties;
 import com.gitbitex.enums.OrderStatus;
-import com.gitbitex.marketdata.orderbook.L2OrderBook;
+import com.gitbitex.marketdata.orderbook.L2OrderBookTracker;
+import com.gitbitex.marketdata.orderbook.L2OrderBookUpdate;
+import com.gitbitex.marketdata.orderbook.L3OrderBookHeader;
 import com.gitbitex.marketdata.orderbook.OrderBook;
-import com.gitbitex.marketdata.orderbook.OrderBookSnapshotManager;
+import com.gitbitex.marketdata.orderbook.OrderBookSnapshotPublisher;
+import com.gitbitex.marketdata.orderbook.PriceLevel;
+import com.gitbitex.matchingengine.MessageSender;
 import com.gitbitex.matchingengine.Order;
 import com.gitbitex.matchingengine.Product;
-import com.gitbitex.matchingengine.message.Message;
-import com.gitbitex.matchingengine.message.OrderMessage;
+import com.gitbitex.matchingengine.Trade;
+import com.gitbitex.matchingengine.message.*;
 import com.gitbitex.matchingengine.snapshot.EngineSnapshotManager;
 import com.gitbitex.matchingengine.snapshot.EngineState;
 import com.gitbitex.middleware.kafka.KafkaConsumerThread;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.TopicPartition;
 
+import java.math.BigDecimal;
 import java.time.Duration;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Maintains the order books of one shard of the products. The engine message stream stays a single partition, as
+ * its offsets and global sequence are what a book is restored against, so every shard reads it whole. The record
+ * type and product header tell which messages belong to other shards, and those are skipped without being decoded.
+ * <p>
+ * A product belongs to shard {@code hash(productId) mod orderBookShardCount}, so adding or removing products never
+ * moves the others. The shard count itself must be the same on every node, which
+ * {@link OrderBookSnapshotManager#checkShardCount} enforces at startup.
+ */
 @Slf4j
-public class OrderBookSnapshotThread extends KafkaConsumerThread<String, Message> implements ConsumerRebalanceListener {
+public class OrderBookSnapshotThread extends KafkaConsumerThread<String, byte[]> implements ConsumerRebalanceListener {
+    private static final long L3_SNAPSHOT_SEQUENCE_INTERVAL = 10000;
+    private static final long L3_SNAPSHOT_INTERVAL_MS = 5000;
+    private static final int RESTORE_THREADS = 4;
+    private static final int WARM_UP_CONCURRENCY = 2;
     private final ConcurrentHashMap<String, OrderBook> orderBooks = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, L2OrderBook> l2OrderBooks = new ConcurrentHashMap<>();
-    private final OrderBookSnapshotManager orderBookSnapshotManager;
+    private final ConcurrentHashMap<String, List<L2OrderBookTracker>> l2OrderBookTrackers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, L3OrderBookHeader> l3OrderBookHeaders = new ConcurrentHashMap<>();
+    private final Map<String, List<OrderBookMessage>> orderBookLogs = new HashMap<>();
+    private final Map<String, Long> orderBookLogSequences = new HashMap<>();
+    private final Map<String, PendingRestore> restores = new HashMap<>();
+    private final Set<String> warmUpProductIds = new LinkedHashSet<>();
+    private final Set<String> knownProductIds = new HashSet<>();
+    private final MatchingEngineMessageDeserializer messageDeserializer = new MatchingEngineMessageDeserializer();
+    private final ExecutorService restoreExecutor = Executors.newFixedThreadPool(RESTORE_THREADS);
+    private final OrderBookSnapshotPublisher orderBookSnapshotPublisher;
     private final EngineSnapshotManager stateStore;
     private final AppProperties appProperties;
+    private final int shard;
+    private long messageSequence;
+    private long l2UpdateTime;
+    private boolean commandInProgress;
 
-    public OrderBookSnapshotThread(KafkaConsumer<String, Message> consumer,
-                                   OrderBookSnapshotManager orderBookSnapshotManager,
+    public OrderBookSnapshotThread(KafkaConsumer<String, byte[]> consumer,
+                                   OrderBookSnapshotPublisher orderBookSnapshotPublisher,
                                    EngineSnapshotManager engineSnapshotManager,
-                                   AppProperties appProperties) {
+                                   AppProperties appProperties, int shard) {
         super(consumer, logger);
-        this.orderBookSnapshotManager = orderBookSnapshotManager;
+        this.shard = shard;
+        this.orderBookSnapshotPublisher = orderBookSnapshotPublisher;
         this.stateStore = engineSnapshotManager;
         this.appProperties = appProperties;
     }
@@ -47,24 +81,44 @@ public class OrderBookSnapshotThread extends KafkaConsumerThread<String, Message
 
     @Override
     public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
-        // restore order book from engine state
+        // only the position is restored here, the order books are restored one by one in the background
         stateStore.runInSession(session -> {
             EngineState engineState = stateStore.getEngineState(session);
             if (engineState != null && engineState.getMessageOffset() != null) {
                 this.consumer.seek(partitions.iterator().next(), engineState.getMessageOffset() + 1);
             }
+            messageSequence = engineState != null && engineState.getMessageSequence() != null
+                    ? engineState.getMessageSequence() : 0;
 
-            // restore order books
+            orderBooks.clear();
+            l2OrderBookTrackers.clear();
+            l3OrderBookHeaders.clear();
+            orderBookLogs.clear();
+            orderBookLogSequences.clear();
+            restores.clear();
+            warmUpProductIds.clear();
+            knownProductIds.clear();
+            commandInProgress = false;
             for (Product product : this.stateStore.getProducts(session)) {
-                orderBooks.remove(product.getId());
-                for (Order order : stateStore.getOrders(session, product.getId())) {
-                    OrderBook orderBook = getOrderBook(product.getId());
-                    orderBook.addOrder(order);
+                knownProductIds.add(product.getId());
+                if (isOwned(product.getId())) {
+                    warmUpProductIds.add(product.getId());
                 }
             }
+            logger.info("shard {}/{} owns {} of {} product(s): {}", shard, appProperties.getOrderBookShardCount(),
+                    warmUpProductIds.size(), knownProductIds.size(), warmUpProductIds);
         });
     }
 
+    @Override
+    public void run() {
+        try {
+            super.run();
+        } finally {
+            restoreExecutor.shutdownNow();
+        }
+    }
+
     @Override
     protected void doSubscribe() {
         consumer.subscribe(Collections.singletonList(appProperties.getMatchingEngineMessageTopic()), this);
@@ -72,47 +126,369 @@ public class OrderBookSnapshotThread extends KafkaConsumerThread<String, Message
 
     @Override
     protected void doPoll() {
-        var records = consumer.poll(Duration.ofSeconds(5));
+        // never block longer than the batch window, so pending changes are flushed even when the book goes quiet
+        var records = consumer.poll(Duration.ofMillis(Math.max(appProperties.getL2UpdateWindowMs(), 1)));
         records.forEach(x -> {
-            Message message = x.value();
-            if (message instanceof OrderMessage orderMessage) {
-                Order order = orderMessage.getOrder();
-                OrderBook orderBook = getOrderBook(order.getProductId());
-                if (order.getStatus() == OrderStatus.OPEN) {
-                    orderBook.addOrder(order);
-                } else {
-                    orderBook.removeOrder(order);
+            if (!isRelevant(x)) {
+                return;
+            }
+            Message message = messageDeserializer.deserialize(x.topic(), x.value());
+            if (message.getSequence() <= messageSequence) {
+                return;
+            }
+            messageSequence = message.getSequence();
+            if (message instanceof CommandStartMessage) {
+                commandInProgress = true;
+                return;
+            } else if (message instanceof CommandEndMessage) {
+                commandInProgress = false;
+                return;
+            } else if (message instanceof ProductMessage productMessage) {
+                onProduct(productMessage.getProduct());
+                return;
+            }
+
+            String productId = getProductId(message);
+            if (productId == null || !isOwned(productId)) {
+                return;
+            }
+            OrderBook orderBook = orderBooks.get(productId);
+            if (orderBook != null) {
+                applySafely(orderBook, message);
+            } else {
+                // the book is not restored yet, keep the message until it is
+                restore(productId).messages.add(message);
+            }
+        });
+
+        completeRestores();
+        warmUp();
+
+        if (System.currentTimeMillis() - l2UpdateTime < appProperties.getL2UpdateWindowMs()) {
+            return;
+        }
+        l2UpdateTime = System.currentTimeMillis();
+
+        // every product's level2 changes are computed once here, subscribers only forward them. Only the top of the
+        // book is read, the snapshots handed over are copies, and writing them happens on the publisher's threads.
+        l2OrderBookTrackers.forEach((productId, trackers) -> {
+            for (L2OrderBookTracker tracker : trackers) {
+                L2OrderBookUpdate update = tracker.update(orderBooks.get(productId));
+                // the level1 book is taken from the full precision view only
+                boolean bestChanged = tracker.getAggregation() == null && tracker.isBestChanged();
+                if (update != null || bestChanged) {
+                    orderBookSnapshotPublisher.publishL2(tracker.snapshot(), update,
+                            bestChanged ? tracker.l1Snapshot() : null);
                 }
-                orderBook.setSequence(orderMessage.getOrderBookSequence());
             }
         });
 
-        orderBooks.entrySet().parallelStream().forEach(e -> {
-            String productId=e.getKey();
-            OrderBook orderBook= e.getValue();
-            L2OrderBook l2OrderBook = l2OrderBooks.get(productId);
-            if (l2OrderBook == null ||
-                    orderBook.getSequence() - l2OrderBook.getSequence() > 1000 ||
-                    System.currentTimeMillis() - l2OrderBook.getTime() > 1000) {
-                takeL2OrderBookSnapshot(orderBook);
+        orderBookLogs.forEach(orderBookSnapshotPublisher::publishOrderBookLog);
+        orderBookLogs.clear();
+
+        // a maker fill is an order message followed by a trade message, only snapshot between commands so that the
+        // level3 book never contains half of a match
+        if (commandInProgress) {
+            return;
+        }
+        orderBooks.forEach((productId, orderBook) -> {
+            L3OrderBookHeader l3OrderBookHeader = l3OrderBookHeaders.get(productId);
+            if (l3OrderBookHeader == null ||
+                    orderBook.getSequence() - l3OrderBookHeader.getSequence() > L3_SNAPSHOT_SEQUENCE_INTERVAL ||
+                    (orderBook.getSequence() > l3OrderBookHeader.getSequence() &&
+                            System.currentTimeMillis() - l3OrderBookHeader.getTime() > L3_SNAPSHOT_INTERVAL_MS)) {
+                takeL3OrderBookSnapshot(orderBook);
             }
         });
     }
 
-    private OrderBook getOrderBook(String productId) {
-        OrderBook orderBook = orderBooks.get(productId);
-        if (orderBook == null) {
-            orderBook = new OrderBook(productId);
-            orderBooks.put(productId, orderBook);
+    /**
+     * A message the book cannot take is logged and skipped, it must not stop the books of every other product.
+     */
+    private void applySafely(OrderBook orderBook, Message message) {
+        try {
+            apply(orderBook, message);
+        } catch (Exception e) {
+            logger.error("apply message error, message skipped: productId={} sequence={} {}",
+                    orderBook.getProductId(), message.getSequence(), e.getMessage(), e);
+        }
+    }
+
+    private void apply(OrderBook orderBook, Message message) {
+        // the book may have been restored from a snapshot taken after the message
+        if (message.getSequence() <= orderBook.getSequence()) {
+            return;
         }
+        if (message instanceof OrderMessage orderMessage) {
+            Order order = orderMessage.getOrder();
+            boolean resting = orderBook.containsOrder(order);
+            if (order.getStatus() == OrderStatus.OPEN) {
+                orderBook.addOrder(order);
+            } else {
+                orderBook.removeOrder(order);
+            }
+            orderBook.setSequence(orderMessage.getSequence());
+            getL2OrderBookTrackers(orderBook).forEach(tracker -> tracker.markDirty(order));
+            logOrderBookMessage(orderMessage, resting);
+        } else if (message instanceof TradeMessage tradeMessage) {
+            orderBook.setTradeId(tradeMessage.getTrade().getSequence());
+            orderBook.setSequence(tradeMessage.getSequence());
+            logOrderBookMessage(tradeMessage);
+        }
+    }
+
+    /**
+     * Tells from the record alone whether its message can concern this shard. Records written before the product
+     * header existed are decoded and checked as before.
+     */
+    private boolean isRelevant(ConsumerRecord<String, byte[]> record) {
+        byte[] value = record.value();
+        if (value == null || value.length == 0) {
+            return false;
+        }
+        switch (MessageType.valueOfByte(value[0])) {
+            case ACCOUNT:
+                return false;
+            case ORDER:
+            case TRADE: {
+                String productId = header(record, MessageSender.PRODUCT_ID_HEADER);
+                return productId == null || isOwned(productId);
+            }
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * A new product is picked up by its shard on its first order, this only makes the assignment visible in the
+     * logs of every shard.
+     */
+    private void onProduct(Product product) {
+        if (knownProductIds.add(product.getId())) {
+            logger.info("product added: productId={} shard={} owned={}", product.getId(),
+                    Math.floorMod(product.getId().hashCode(), appProperties.getOrderBookShardCount()),
+                    isOwned(product.getId()));
+        }
+    }
+
+    private String getProductId(Message message) {
+        if (message instanceof OrderMessage orderMessage) {
+            return orderMessage.getOrder().getProductId();
+        } else if (message instanceof TradeMessage tradeMessage) {
+            return tradeMessage.getTrade().getProductId();
+        }
+        return null;
+    }
+
+    /**
+     * Starts restoring the book of the product, unless it is already being restored. Each restore reads the book
+     * from its own snapshot session, so it may be newer than the position the thread started from.
+     */
+    private PendingRestore restore(String productId) {
+        PendingRestore restore = restores.get(productId);
+        if (restore == null) {
+            restore = new PendingRestore();
+            restores.put(productId, restore);
+            warmUpProductIds.remove(productId);
+        }
+        if (restore.future == null) {
+            restore.future = CompletableFuture.supplyAsync(() -> loadOrderBook(productId), restoreExecutor);
+        }
+        return restore;
+    }
+
+    private OrderBook loadOrderBook(String productId) {
+        long t1 = System.currentTimeMillis();
+        OrderBook orderBook = new OrderBook(productId);
+        stateStore.runInSession(session -> {
+            EngineState engineState = stateStore.getEngineState(session);
+            if (engineState != null) {
+                orderBook.setSequence(engineState.getMessageSequence() != null ? engineState.getMessageSequence() : 0);
+                orderBook.setTradeId(engineState.getTradeSequences().getOrDefault(productId, 0L));
+            }
+            for (Order order : stateStore.getOrders(session, productId)) {
+                orderBook.addOrder(order);
+            }
+        });
+        logger.info("restored order book: productId={} sequence={} ({}ms)", productId, orderBook.getSequence(),
+                System.currentTimeMillis() - t1);
         return orderBook;
     }
 
-    private void takeL2OrderBookSnapshot(OrderBook orderBook) {
-        logger.info("taking level2 order book snapshot: sequence={}", orderBook.getSequence());
-        L2OrderBook l2OrderBook = new L2OrderBook(orderBook, 25);
-        l2OrderBooks.put(orderBook.getProductId(), l2OrderBook);
-        orderBookSnapshotManager.saveL2BatchOrderBook(l2OrderBook);
+    /**
+     * Installs the books whose restore finished and replays the messages kept for them. A failed restore is retried
+     * on the next poll.
+     */
+    private void completeRestores() {
+        Iterator<Map.Entry<String, PendingRestore>> it = restores.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, PendingRestore> entry = it.next();
+            PendingRestore restore = entry.getValue();
+            if (!restore.future.isDone()) {
+                continue;
+            }
+            OrderBook orderBook;
+            try {
+                orderBook = restore.future.join();
+            } catch (Exception e) {
+                logger.error("restore order book error: productId={} {}", entry.getKey(), e.getMessage(), e);
+                restore.future = null;
+                restore(entry.getKey());
+                continue;
+            }
+
+            it.remove();
+            orderBooks.put(entry.getKey(), orderBook);
+            List<L2OrderBookTracker> trackers = getL2OrderBookTrackers(orderBook);
+            // level1 is otherwise only written when the best price moves, which a quiet book may not do for long
+            orderBookSnapshotPublisher.publishRestored(trackers.stream().map(L2OrderBookTracker::snapshot).toList(),
+                    trackers.get(0).l1Snapshot());
+            restore.messages.forEach(message -> applySafely(orderBook, message));
+            // same for level3, unless the replay stopped inside a command; then it is taken when the command ends
+            if (!commandInProgress) {
+                takeL3OrderBookSnapshot(orderBook);
+            }
+        }
+    }
+
+    /**
+     * Restores the books nobody asked for yet a few at a time, so products with traffic are never queued behind the
+     * long tail.
+     */
+    private void warmUp() {
+        Iterator<String> it = warmUpProductIds.iterator();
+        while (it.hasNext() && restores.size() < WARM_UP_CONCURRENCY) {
+            String productId = it.next();
+            it.remove();
+            if (!orderBooks.containsKey(productId)) {
+                restore(productId);
+            }
+        }
+    }
+
+    /**
+     * Products added later land on their shard on their first message. Changing the shard count moves products
+     * between shards, so it takes a restart of all nodes, and every shard restores its books from the engine snapshot
+     * again.
+     */
+    private boolean isOwned(String productId) {
+        return Math.floorMod(productId.hashCode(), appProperties.getOrderBookShardCount()) == shard;
     }
 
+    /**
+     * Turns an order message into the events of the full channel: received, open when the order starts resting and
+     * done when it leaves. Updates of resting orders are covered by the match that follows them.
+     */
+    private void logOrderBookMessage(OrderMessage orderMessage, boolean resting) {
+        Order order = orderMessage.getOrder();
+        switch (order.getStatus()) {
+            case RECEIVED -> {
+                OrderReceivedMessage message = new OrderReceivedMessage();
+                message.setOrderId(order.getId());
+                message.setUserId(order.getUserId());
+                message.setSize(order.getSize());
+                message.setPrice(order.getPrice());
+                message.setFunds(order.getFunds());
+                message.setSide(order.getSide());
+                message.setOrderType(order.getType());
+                message.setClientOid(order.getClientOid());
+                message.setTime(order.getTime());
+                logOrderBookMessage(order.getProductId(), orderMessage.getSequence(), message);
+            }
+            case OPEN -> {
+                if (resting) {
+                    return;
+                }
+                OrderOpenMessage message = new OrderOpenMessage();
+                message.setOrderId(order.getId());
+                message.setUserId(order.getUserId());
+                message.setRemainingSize(order.getRemainingSize());
+                message.setPrice(order.getPrice());
+                message.setSide(order.getSide());
+                message.setTime(order.getTime());
+                logOrderBookMessage(order.getProductId(), orderMessage.getSequence(), message);
+            }
+            case FILLED, CANCELLED -> {
+                OrderDoneMessage message = new OrderDoneMessage();
+                message.setOrderId(order.getId());
+                message.setUserId(order.getUserId());
+                message.setRemainingSize(order.getRemainingSize());
+                message.setRemainingFunds(order.getRemainingFunds());
+                message.setPrice(order.getPrice());
+                message.setSide(order.getSide());
+                message.setOrderType(order.getType());
+                message.setDoneReason(order.getStatus() == OrderStatus.FILLED ? "filled" : "canceled");
+                message.setTime(new Date());
+                logOrderBookMessage(order.getProductId(), orderMessage.getSequence(), message);
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void logOrderBookMessage(TradeMessage tradeMessage) {
+        Trade trade = tradeMessage.getTrade();
+        OrderMatchMessage message = new OrderMatchMessage();
+        message.setTradeId(trade.getSequence());
+        message.setTakerOrderId(trade.getTakerOrderId());
+        message.setMakerOrderId(trade.getMakerOrderId());
+        message.setSide(trade.getSide());
+        message.setPrice(trade.getPrice());
+        message.setSize(trade.getSize());
+        message.setFunds(trade.getFunds());
+        message.setTime(trade.getTime());
+        logOrderBookMessage(trade.getProductId(), tradeMessage.getSequence(), message);
+    }
+
+    private void logOrderBookMessage(String productId, long sequence, OrderBookMessage message) {
+        message.setProductId(productId);
+        message.setSequence(sequence);
+        message.setPrevSequence(orderBookLogSequences.getOrDefault(productId, 0L));
+        orderBookLogSequences.put(productId, sequence);
+        orderBookLogs.computeIfAbsent(productId, k -> new ArrayList<>()).add(message);
+    }
+
+    /**
+     * Copying the price levels is a few array copies per level, the orders are turned into level3 lines on the
+     * publisher's threads.
+     */
+    private void takeL3OrderBookSnapshot(OrderBook orderBook) {
+        L3OrderBookHeader header = new L3OrderBookHeader();
+        header.setProductId(orderBook.getProductId());
+        header.setSequence(orderBook.getSequence());
+        header.setTradeId(orderBook.getTradeId());
+        header.setTime(System.currentTimeMillis());
+        List<PriceLevel> asks = copyLevels(orderBook.getAsks());
+        List<PriceLevel> bids = copyLevels(orderBook.getBids());
+        if (orderBookSnapshotPublisher.saveL3OrderBook(header, asks, bids)) {
+            l3OrderBookHeaders.put(orderBook.getProductId(), header);
+        }
+    }
+
+    private List<PriceLevel> copyLevels(TreeMap<BigDecimal, PriceLevel> levels) {
+        List<PriceLevel> copies = new ArrayList<>(levels.size());
+        for (PriceLevel level : levels.values()) {
+            copies.add(level.copy());
+        }
+        return copies;
+    }
+
+    /**
+     * The full precision view comes first, followed by one view per configured aggregation.
+     */
+    private List<L2OrderBookTracker> getL2OrderBookTrackers(OrderBook orderBook) {
+        return l2OrderBookTrackers.computeIfAbsent(orderBook.getProductId(), k -> {
+            List<L2OrderBookTracker> trackers = new ArrayList<>();
+            trackers.add(new L2OrderBookTracker(orderBook, appProperties.getL2OrderBookDepth()));
+            for (BigDecimal step : appProperties.getL2Aggregations()) {
+                trackers.add(new L2OrderBookTracker(orderBook, appProperties.getL2OrderBookDepth(), step));
+            }
+            return trackers;
+        });
+    }
+
+    private static class PendingRestore {
+        private final List<Message> messages = new ArrayList<>();
+        private CompletableFuture<OrderBook> future;
+    }
 }
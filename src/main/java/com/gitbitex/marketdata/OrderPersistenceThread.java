@@ -1,10 +1,8 @@
 package com.gitbitex.marketdata;
 
-import com.alibaba.fastjson.JSON;
 import com.gitbitex.AppProperties;
 import com.gitbitex.marketdata.entity.OrderEntity;
 import com.gitbitex.marketdata.manager.OrderManager;
-import com.gitbitex.matchingengine.Order;
 import com.gitbitex.matchingengine.message.Message;
 import com.gitbitex.matchingengine.message.OrderMessage;
 import com.gitbitex.middleware.kafka.KafkaConsumerThread;
@@ -12,9 +10,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.TopicPartition;
-import org.redisson.api.RTopic;
-import org.redisson.api.RedissonClient;
-import org.redisson.client.codec.StringCodec;
 
 import java.time.Duration;
 import java.util.*;
@@ -23,15 +18,12 @@ import java.util.*;
 public class OrderPersistenceThread extends KafkaConsumerThread<String, Message> implements ConsumerRebalanceListener {
     private final AppProperties appProperties;
     private final OrderManager orderManager;
-    private final RTopic orderTopic;
 
     public OrderPersistenceThread(KafkaConsumer<String, Message> kafkaConsumer, OrderManager orderManager,
-                                  RedissonClient redissonClient,
                                   AppProperties appProperties) {
         super(kafkaConsumer, logger);
         this.appProperties = appProperties;
         this.orderManager = orderManager;
-        this.orderTopic = redissonClient.getTopic("order", StringCodec.INSTANCE);
     }
 
     @Override
@@ -58,7 +50,6 @@ public class OrderPersistenceThread extends KafkaConsumerThread<String, Message>
             if (message instanceof OrderMessage orderMessage) {
                 OrderEntity orderEntity = orderEntity(orderMessage);
                 orders.put(orderEntity.getId(), orderEntity);
-                orderTopic.publishAsync(JSON.toJSONString(orderMessage));
             }
         });
         orderManager.saveAll(orders.values());
@@ -67,23 +58,8 @@ public class OrderPersistenceThread extends KafkaConsumerThread<String, Message>
     }
 
     private OrderEntity orderEntity(OrderMessage message) {
-        Order order = message.getOrder();
-        OrderEntity orderEntity = new OrderEntity();
-        orderEntity.setId(order.getId());
-        orderEntity.setSequence(order.getSequence());
-        orderEntity.setProductId(order.getProductId());
-        orderEntity.setUserId(order.getUserId());
-        orderEntity.setStatus(order.getStatus());
-        orderEntity.setPrice(order.getPrice());
-        orderEntity.setSize(order.getSize());
-        orderEntity.setFunds(order.getFunds());
-        orderEntity.setClientOid(order.getClientOid());
-        orderEntity.setSide(order.getSide());
-        orderEntity.setType(order.getType());
-        orderEntity.setTime(order.getTime());
+        OrderEntity orderEntity = orderManager.orderEntity(message.getOrder());
         orderEntity.setCreatedAt(new Date());
-        orderEntity.setFilledSize(order.getSize().subtract(order.getRemainingSize()));
-        orderEntity.setExecutedValue(order.getFunds().subtract(order.getRemainingFunds()));
         return orderEntity;
     }
 }
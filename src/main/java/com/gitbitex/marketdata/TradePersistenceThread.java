@@ -1,6 +1,5 @@
 package com.gitbitex.marketdata;
 
-import com.alibaba.fastjson.JSON;
 import com.gitbitex.AppProperties;
 import com.gitbitex.marketdata.entity.TradeEntity;
 import com.gitbitex.marketdata.manager.TradeManager;
@@ -12,29 +11,23 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.TopicPartition;
-import org.redisson.api.RTopic;
-import org.redisson.api.RedissonClient;
-import org.redisson.client.codec.StringCodec;
 
 import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 @Slf4j
 public class TradePersistenceThread extends KafkaConsumerThread<String, Message> implements ConsumerRebalanceListener {
     private final TradeManager tradeManager;
     private final AppProperties appProperties;
-    private final RTopic tradeTopic;
 
     public TradePersistenceThread(KafkaConsumer<String, Message> consumer, TradeManager tradeManager,
-                                  RedissonClient redissonClient,
                                   AppProperties appProperties) {
         super(consumer, logger);
         this.tradeManager = tradeManager;
         this.appProperties = appProperties;
-        this.tradeTopic = redissonClient.getTopic("trade", StringCodec.INSTANCE);
     }
 
     @Override
@@ -55,13 +48,12 @@ public class TradePersistenceThread extends KafkaConsumerThread<String, Message>
     @Override
     protected void doPoll() {
         var records = consumer.poll(Duration.ofSeconds(5));
-        Map<String, TradeEntity> trades = new HashMap<>();
+        Map<String, TradeEntity> trades = new LinkedHashMap<>();
         records.forEach(x -> {
             Message message = x.value();
             if (message instanceof TradeMessage tradeMessage) {
                 TradeEntity tradeEntity = tradeEntity(tradeMessage);
                 trades.put(tradeEntity.getId(), tradeEntity);
-                tradeTopic.publishAsync(JSON.toJSONString(tradeMessage));
             }
         });
         tradeManager.saveAll(trades.values());
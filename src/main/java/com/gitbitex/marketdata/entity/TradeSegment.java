@@ -0,0 +1,23 @@
+package com.gitbitex.marketdata.entity;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * One hour of trades for a product, stored column by column and deflated.
+ * See {@link com.gitbitex.marketdata.util.TradeSegmentCodec} for the layout of {@code data}.
+ */
+@Getter
+@Setter
+public class TradeSegment {
+    private String id;
+    private String productId;
+    /**
+     * start of the hour, epoch seconds
+     */
+    private long time;
+    private long startSequence;
+    private long endSequence;
+    private int count;
+    private byte[] data;
+}
@@ -3,6 +3,7 @@ package com.gitbitex.marketdata.manager;
 import com.gitbitex.marketdata.entity.OrderEntity;
 import com.gitbitex.marketdata.repository.FillRepository;
 import com.gitbitex.marketdata.repository.OrderRepository;
+import com.gitbitex.matchingengine.Order;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -24,4 +25,26 @@ public class OrderManager {
         orderRepository.saveAll(orders);
         logger.info("saved {} order(s) ({}ms)", orders.size(), System.currentTimeMillis() - t1);
     }
+
+    /**
+     * Returns the order as it is stored, without createdAt.
+     */
+    public OrderEntity orderEntity(Order order) {
+        OrderEntity orderEntity = new OrderEntity();
+        orderEntity.setId(order.getId());
+        orderEntity.setSequence(order.getSequence());
+        orderEntity.setProductId(order.getProductId());
+        orderEntity.setUserId(order.getUserId());
+        orderEntity.setStatus(order.getStatus());
+        orderEntity.setPrice(order.getPrice());
+        orderEntity.setSize(order.getSize());
+        orderEntity.setFunds(order.getFunds());
+        orderEntity.setClientOid(order.getClientOid());
+        orderEntity.setSide(order.getSide());
+        orderEntity.setType(order.getType());
+        orderEntity.setTime(order.getTime());
+        orderEntity.setFilledSize(order.getSize().subtract(order.getRemainingSize()));
+        orderEntity.setExecutedValue(order.getFunds().subtract(order.getRemainingFunds()));
+        return orderEntity;
+    }
 }
@@ -1,18 +1,31 @@
 package com.gitbitex.marketdata.manager;
 
+import com.gitbitex.AppProperties;
+import com.gitbitex.marketdata.entity.ProductEntity;
 import com.gitbitex.marketdata.entity.TradeEntity;
+import com.gitbitex.marketdata.entity.TradeSegment;
+import com.gitbitex.marketdata.repository.ProductRepository;
 import com.gitbitex.marketdata.repository.TradeRepository;
+import com.gitbitex.marketdata.repository.TradeSegmentRepository;
+import com.gitbitex.marketdata.util.TradeSegmentCodec;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
-import java.util.Collection;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class TradeManager {
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int ROLL_BATCH_SIZE = 10000;
     private final TradeRepository tradeRepository;
+    private final TradeSegmentRepository tradeSegmentRepository;
+    private final ProductRepository productRepository;
+    private final AppProperties appProperties;
 
     public void saveAll(Collection<TradeEntity> trades) {
         if (trades.isEmpty()) {
@@ -23,5 +36,96 @@ public class TradeManager {
         tradeRepository.saveAll(trades);
         logger.info("saved {} trade(s) ({}ms)", trades.size(), System.currentTimeMillis() - t1);
     }
-}
 
+    /**
+     * Returns trades in [startTime, endTime), newest first. Recent trades come from the trade collection, older ones
+     * from the hourly segments they were rolled into.
+     */
+    public List<TradeEntity> getTrades(String productId, Date startTime, Date endTime, int limit) {
+        List<TradeEntity> trades = tradeRepository.findByProductId(productId, startTime, endTime, limit);
+        if (trades.size() >= limit) {
+            return trades;
+        }
+
+        long beforeSequence = trades.isEmpty() ? Long.MAX_VALUE : trades.get(trades.size() - 1).getSequence();
+        Long startSeconds = startTime != null ? TimeUnit.MILLISECONDS.toSeconds(startTime.getTime()) : null;
+        Long endSeconds = endTime != null ? TimeUnit.MILLISECONDS.toSeconds(endTime.getTime()) : null;
+        for (TradeSegment segment : tradeSegmentRepository.findByProductId(productId, startSeconds, endSeconds,
+                limit)) {
+            List<TradeEntity> segmentTrades = TradeSegmentCodec.decode(productId, segment.getData());
+            for (int i = segmentTrades.size() - 1; i >= 0 && trades.size() < limit; i--) {
+                TradeEntity trade = segmentTrades.get(i);
+                if (trade.getSequence() >= beforeSequence) {
+                    continue;
+                }
+                if (startTime != null && trade.getTime().before(startTime)) {
+                    continue;
+                }
+                if (endTime != null && !trade.getTime().before(endTime)) {
+                    continue;
+                }
+                trades.add(trade);
+            }
+            if (trades.size() >= limit) {
+                break;
+            }
+        }
+        return trades;
+    }
+
+    /**
+     * Moves trades older than the retention period into hourly segments. Segments are written before the trades are
+     * deleted, and existing segments are merged by sequence, so an interrupted run can simply be repeated.
+     */
+    public void rollUpSegments() {
+        long cutoff = (System.currentTimeMillis() - TimeUnit.HOURS.toMillis(
+                appProperties.getTradeSegmentRetentionHours())) / HOUR_MILLIS * HOUR_MILLIS;
+        for (ProductEntity product : productRepository.findAll()) {
+            List<TradeEntity> trades;
+            do {
+                trades = tradeRepository.findOldestBefore(product.getId(), new Date(cutoff), ROLL_BATCH_SIZE);
+                rollUpSegments(product.getId(), trades);
+            } while (trades.size() == ROLL_BATCH_SIZE);
+        }
+    }
+
+    private void rollUpSegments(String productId, List<TradeEntity> trades) {
+        if (trades.isEmpty()) {
+            return;
+        }
+
+        long t1 = System.currentTimeMillis();
+        Map<Long, List<TradeEntity>> tradesByHour = trades.stream()
+                .collect(Collectors.groupingBy(x -> x.getTime().getTime() / HOUR_MILLIS * HOUR_MILLIS,
+                        TreeMap::new, Collectors.toList()));
+
+        List<TradeSegment> segments = new ArrayList<>();
+        tradesByHour.forEach((hour, hourTrades) -> {
+            long time = TimeUnit.MILLISECONDS.toSeconds(hour);
+            String segmentId = productId + "-" + time;
+
+            TreeMap<Long, TradeEntity> tradeBySequence = new TreeMap<>();
+            TradeSegment segment = tradeSegmentRepository.findById(segmentId);
+            if (segment != null) {
+                TradeSegmentCodec.decode(productId, segment.getData())
+                        .forEach(x -> tradeBySequence.put(x.getSequence(), x));
+            }
+            hourTrades.forEach(x -> tradeBySequence.put(x.getSequence(), x));
+
+            segment = new TradeSegment();
+            segment.setId(segmentId);
+            segment.setProductId(productId);
+            segment.setTime(time);
+            segment.setStartSequence(tradeBySequence.firstKey());
+            segment.setEndSequence(tradeBySequence.lastKey());
+            segment.setCount(tradeBySequence.size());
+            segment.setData(TradeSegmentCodec.encode(new ArrayList<>(tradeBySequence.values())));
+            segments.add(segment);
+        });
+        tradeSegmentRepository.saveAll(segments);
+        tradeRepository.deleteByIds(trades.stream().map(TradeEntity::getId).collect(Collectors.toList()));
+
+        logger.info("rolled {} trade(s) of {} into {} segment(s) ({}ms)", trades.size(), productId, segments.size(),
+                System.currentTimeMillis() - t1);
+    }
+}
@@ -2,11 +2,16 @@ package com.gitbitex.marketdata.manager;
 
 import com.gitbitex.marketdata.entity.User;
 import com.gitbitex.marketdata.repository.UserRepository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.RequiredArgsConstructor;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.BeanUtils;
 import org.springframework.stereotype.Component;
 import org.springframework.util.DigestUtils;
 
+import javax.annotation.PostConstruct;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.UUID;
@@ -15,9 +20,30 @@ import java.util.concurrent.TimeUnit;
 @Component
 @RequiredArgsConstructor
 public class UserManager {
+    private static final String ACCESS_TOKEN_DELETED_TOPIC = "accessTokenDeleted";
+    private static final String USER_UPDATED_TOPIC = "userUpdated";
     private final UserRepository userRepository;
     private final RedissonClient redissonClient;
     private final AccountManager accountManager;
+    // resolved tokens, so that handshakes and api calls do not hit redis and mongo every time. The cached users are
+    // never handed out, every caller gets a copy of its own
+    private final Cache<String, User> userByAccessToken = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(30, TimeUnit.SECONDS)
+            .build();
+    // tokens that did not resolve, kept briefly so that clients retrying a bad token are cheap to turn away
+    private final Cache<String, Boolean> invalidAccessTokens = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(5, TimeUnit.SECONDS)
+            .build();
+
+    @PostConstruct
+    public void init() {
+        redissonClient.getTopic(ACCESS_TOKEN_DELETED_TOPIC, StringCodec.INSTANCE).addListener(String.class,
+                (c, accessToken) -> userByAccessToken.invalidate(accessToken));
+        redissonClient.getTopic(USER_UPDATED_TOPIC, StringCodec.INSTANCE).addListener(String.class,
+                (c, userId) -> invalidateUser(userId));
+    }
 
     public User createUser(String email, String password) {
         // check if the email address is already registered
@@ -40,11 +66,26 @@ public class UserManager {
         String accessToken = user.getId() + ":" + sessionId + ":" + generateAccessTokenSecret(user);
         redissonClient.getBucket(redisKeyForAccessToken(accessToken))
                 .set(new Date().toString(), 14, TimeUnit.DAYS);
+        invalidAccessTokens.invalidate(accessToken);
         return accessToken;
     }
 
+    /**
+     * Deletes the token and tells every node to forget it, a cached token stays usable until then.
+     */
     public void deleteAccessToken(String accessToken) {
         redissonClient.getBucket(redisKeyForAccessToken(accessToken)).delete();
+        userByAccessToken.invalidate(accessToken);
+        redissonClient.getTopic(ACCESS_TOKEN_DELETED_TOPIC, StringCodec.INSTANCE).publish(accessToken);
+    }
+
+    /**
+     * Saves the user and tells every node to drop the cached copies of it.
+     */
+    public void updateUser(User user) {
+        userRepository.save(user);
+        invalidateUser(user.getId());
+        redissonClient.getTopic(USER_UPDATED_TOPIC, StringCodec.INSTANCE).publish(user.getId());
     }
 
     public User getUserByAccessToken(String accessToken) {
@@ -52,6 +93,34 @@ public class UserManager {
             return null;
         }
 
+        User user = userByAccessToken.getIfPresent(accessToken);
+        if (user != null) {
+            return copy(user);
+        }
+        if (invalidAccessTokens.getIfPresent(accessToken) != null) {
+            return null;
+        }
+
+        user = loadUserByAccessToken(accessToken);
+        if (user != null) {
+            userByAccessToken.put(accessToken, user);
+            return copy(user);
+        }
+        invalidAccessTokens.put(accessToken, Boolean.TRUE);
+        return null;
+    }
+
+    private void invalidateUser(String userId) {
+        userByAccessToken.asMap().values().removeIf(x -> x.getId().equals(userId));
+    }
+
+    private static User copy(User user) {
+        User copy = new User();
+        BeanUtils.copyProperties(user, copy);
+        return copy;
+    }
+
+    private User loadUserByAccessToken(String accessToken) {
         Object val = redissonClient.getBucket(redisKeyForAccessToken(accessToken)).get();
         if (val == null) {
             return null;
@@ -1,21 +1,21 @@
 package com.gitbitex.marketdata.orderbook;
 
-import com.gitbitex.enums.OrderSide;
 import lombok.Getter;
 import lombok.Setter;
-import org.springframework.lang.Nullable;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 @Getter
 @Setter
 public class L2OrderBook {
     private String productId;
+    /**
+     * Price step the levels are aggregated by, null for full precision
+     */
+    private String aggregation;
     private long sequence;
     private long time;
     private List<Line> asks = new ArrayList<>();
@@ -38,52 +38,11 @@ public class L2OrderBook {
                 .collect(Collectors.toList());
     }
 
-    @Nullable
-    public List<L2OrderBookChange> diff(L2OrderBook newL2OrderBook) {
-        if (newL2OrderBook.getSequence() < this.sequence) {
-            throw new RuntimeException("new l2 order book is too old");
-        }
-        if (newL2OrderBook.getSequence() == this.sequence) {
-            return null;
-        }
-
-        List<L2OrderBookChange> changes = new ArrayList<>();
-        changes.addAll(diff(OrderSide.SELL, this.getAsks(), newL2OrderBook.getAsks()));
-        changes.addAll(diff(OrderSide.BUY, this.getBids(), newL2OrderBook.getBids()));
-        return changes;
-    }
-
-    private List<L2OrderBookChange> diff(OrderSide side, List<Line> oldLines, List<Line> newLines) {
-        Map<String, Line> oldLineByPrice = new LinkedHashMap<>();
-        Map<String, Line> newLineByPrice = new LinkedHashMap<>();
-        for (Line oldLine : oldLines) {
-            oldLineByPrice.put(oldLine.getPrice(), oldLine);
-        }
-        for (Line newLine : newLines) {
-            newLineByPrice.put(newLine.getPrice(), newLine);
-        }
-
-        List<L2OrderBookChange> changes = new ArrayList<>();
-        oldLineByPrice.forEach(((oldPrice, oldLine) -> {
-            Line newLine = newLineByPrice.get(oldPrice);
-            if (newLine == null) {
-                L2OrderBookChange change = new L2OrderBookChange(side.name().toLowerCase(), oldPrice, "0");
-                changes.add(change);
-            } else if (!newLine.getSize().equals(oldLine.getSize())) {
-                L2OrderBookChange change = new L2OrderBookChange(side.name().toLowerCase(), oldPrice,
-                        newLine.getSize());
-                changes.add(change);
-            }
-        }));
-        newLineByPrice.forEach((newPrice, newLine) -> {
-            Line oldLine = oldLineByPrice.get(newPrice);
-            if (oldLine == null) {
-                L2OrderBookChange change = new L2OrderBookChange(side.name().toLowerCase(), newPrice,
-                        newLine.getSize());
-                changes.add(change);
-            }
-        });
-        return changes;
+    /**
+     * Canonical form of an aggregation step, so that e.g. "1", "1.0" and "1E+0" name the same book.
+     */
+    public static String aggregation(BigDecimal step) {
+        return step != null ? step.stripTrailingZeros().toPlainString() : null;
     }
 
     public static class Line extends ArrayList<Object> {
@@ -103,5 +62,9 @@ public class L2OrderBook {
         public String getSize() {
             return this.get(1).toString();
         }
+
+        public int getOrderCount() {
+            return ((Number) this.get(2)).intValue();
+        }
     }
 }
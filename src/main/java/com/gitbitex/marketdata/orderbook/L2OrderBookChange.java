@@ -2,6 +2,10 @@ package com.gitbitex.marketdata.orderbook;
 
 import java.util.ArrayList;
 
+/**
+ * [side, price, size, orderCount]. The order count lets consumers keep a complete copy of the book, it is not
+ * forwarded to websocket clients.
+ */
 public class L2OrderBookChange extends ArrayList<Object> {
     public L2OrderBookChange() {
     }
@@ -11,4 +15,32 @@ public class L2OrderBookChange extends ArrayList<Object> {
         this.add(price);
         this.add(size);
     }
+
+    public L2OrderBookChange(String side, String price, String size, int orderCount) {
+        this(side, price, size);
+        this.add(orderCount);
+    }
+
+    public String getSide() {
+        return this.get(0).toString();
+    }
+
+    public String getPrice() {
+        return this.get(1).toString();
+    }
+
+    public String getSize() {
+        return this.get(2).toString();
+    }
+
+    public int getOrderCount() {
+        return this.size() > 3 ? ((Number) this.get(3)).intValue() : 0;
+    }
+
+    /**
+     * Returns the change without the order count.
+     */
+    public L2OrderBookChange withoutOrderCount() {
+        return this.size() > 3 ? new L2OrderBookChange(getSide(), getPrice(), getSize()) : this;
+    }
 }
@@ -0,0 +1,191 @@
+package com.gitbitex.marketdata.orderbook;
+
+import com.gitbitex.enums.OrderSide;
+import com.gitbitex.matchingengine.Order;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * Keeps the published top-N level2 view of one order book and turns order events into level2 changes. Only the
+ * price levels touched since the last update are recomputed, plus the levels that enter or leave the window.
+ * <p>
+ * With an aggregation step, levels are grouped into buckets of that size: asks are rounded up and bids down to a
+ * multiple of the step, so a bucket never crosses the spread.
+ */
+public class L2OrderBookTracker {
+    private final String productId;
+    private final int depth;
+    @Getter
+    private final String aggregation;
+    private final BigDecimal step;
+    private final TreeMap<BigDecimal, L2OrderBook.Line> asks = new TreeMap<>(Comparator.naturalOrder());
+    private final TreeMap<BigDecimal, L2OrderBook.Line> bids = new TreeMap<>(Comparator.reverseOrder());
+    private final Set<BigDecimal> dirtyAsks = new TreeSet<>();
+    private final Set<BigDecimal> dirtyBids = new TreeSet<>();
+    @Getter
+    private long sequence;
+    private long time;
+    /**
+     * Whether the best bid or ask changed in the last update
+     */
+    @Getter
+    private boolean bestChanged;
+
+    public L2OrderBookTracker(OrderBook orderBook, int depth) {
+        this(orderBook, depth, null);
+    }
+
+    public L2OrderBookTracker(OrderBook orderBook, int depth, BigDecimal step) {
+        this.productId = orderBook.getProductId();
+        this.depth = depth;
+        this.step = step != null && step.signum() > 0 ? step.stripTrailingZeros() : null;
+        this.aggregation = L2OrderBook.aggregation(this.step);
+        this.sequence = orderBook.getSequence();
+        this.time = System.currentTimeMillis();
+        reconcile(OrderSide.SELL, orderBook.getAsks(), asks, null, new ArrayList<>());
+        reconcile(OrderSide.BUY, orderBook.getBids(), bids, null, new ArrayList<>());
+    }
+
+    public void markDirty(Order order) {
+        if (order.getSide() == OrderSide.BUY) {
+            dirtyBids.add(bucket(OrderSide.BUY, order.getPrice()));
+        } else {
+            dirtyAsks.add(bucket(OrderSide.SELL, order.getPrice()));
+        }
+    }
+
+    public boolean isDirty() {
+        return !dirtyAsks.isEmpty() || !dirtyBids.isEmpty();
+    }
+
+    /**
+     * Brings the view up to date with the order book and returns the changes, or null if the view did not change.
+     */
+    public L2OrderBookUpdate update(OrderBook orderBook) {
+        bestChanged = false;
+        if (!isDirty()) {
+            return null;
+        }
+
+        L2OrderBook.Line bestAsk = best(asks);
+        L2OrderBook.Line bestBid = best(bids);
+        List<L2OrderBookChange> changes = new ArrayList<>();
+        reconcile(OrderSide.SELL, orderBook.getAsks(), asks, dirtyAsks, changes);
+        reconcile(OrderSide.BUY, orderBook.getBids(), bids, dirtyBids, changes);
+        bestChanged = !Objects.equals(bestAsk, best(asks)) || !Objects.equals(bestBid, best(bids));
+        if (changes.isEmpty()) {
+            return null;
+        }
+
+        L2OrderBookUpdate update = new L2OrderBookUpdate();
+        update.setProductId(productId);
+        update.setAggregation(aggregation);
+        update.setPrevSequence(sequence);
+        update.setSequence(orderBook.getSequence());
+        update.setTime(System.currentTimeMillis());
+        update.setChanges(changes);
+        this.sequence = update.getSequence();
+        this.time = update.getTime();
+        return update;
+    }
+
+    public L2OrderBook snapshot() {
+        L2OrderBook l2OrderBook = new L2OrderBook();
+        l2OrderBook.setProductId(productId);
+        l2OrderBook.setAggregation(aggregation);
+        l2OrderBook.setSequence(sequence);
+        l2OrderBook.setTime(time);
+        l2OrderBook.setAsks(new ArrayList<>(asks.values()));
+        l2OrderBook.setBids(new ArrayList<>(bids.values()));
+        return l2OrderBook;
+    }
+
+    /**
+     * Returns the best bid and ask as a level1 book.
+     */
+    public L2OrderBook l1Snapshot() {
+        L2OrderBook l1OrderBook = new L2OrderBook();
+        l1OrderBook.setProductId(productId);
+        l1OrderBook.setSequence(sequence);
+        l1OrderBook.setTime(time);
+        if (!asks.isEmpty()) {
+            l1OrderBook.getAsks().add(best(asks));
+        }
+        if (!bids.isEmpty()) {
+            l1OrderBook.getBids().add(best(bids));
+        }
+        return l1OrderBook;
+    }
+
+    private L2OrderBook.Line best(TreeMap<BigDecimal, L2OrderBook.Line> view) {
+        return view.isEmpty() ? null : view.firstEntry().getValue();
+    }
+
+    /**
+     * Rebuilds the window of one side. Levels that were in the view and are not dirty are reused as they are; a null
+     * dirty set recomputes every level.
+     */
+    private void reconcile(OrderSide side, TreeMap<BigDecimal, PriceLevel> depth,
+                           TreeMap<BigDecimal, L2OrderBook.Line> view, Set<BigDecimal> dirtyPrices,
+                           List<L2OrderBookChange> changes) {
+        String sideName = side.name().toLowerCase();
+        TreeMap<BigDecimal, L2OrderBook.Line> newView = new TreeMap<>(view.comparator());
+        BigDecimal price = depth.isEmpty() ? null : depth.firstKey();
+        while (price != null && newView.size() < this.depth) {
+            BigDecimal bucket = bucket(side, price);
+            L2OrderBook.Line line = view.get(bucket);
+            if (line == null || dirtyPrices == null || dirtyPrices.contains(bucket)) {
+                L2OrderBook.Line newLine = line(side, depth, bucket);
+                if (line == null || !line.getSize().equals(newLine.getSize())
+                        || line.getOrderCount() != newLine.getOrderCount()) {
+                    changes.add(new L2OrderBookChange(sideName, newLine.getPrice(), newLine.getSize(),
+                            newLine.getOrderCount()));
+                }
+                line = newLine;
+            }
+            newView.put(bucket, line);
+            // the depth is ordered from the best price, so the last price of a bucket is the bucket price itself
+            price = depth.higherKey(bucket);
+        }
+        for (Map.Entry<BigDecimal, L2OrderBook.Line> entry : view.entrySet()) {
+            if (!newView.containsKey(entry.getKey())) {
+                changes.add(new L2OrderBookChange(sideName, entry.getValue().getPrice(), "0", 0));
+            }
+        }
+
+        view.clear();
+        view.putAll(newView);
+        if (dirtyPrices != null) {
+            dirtyPrices.clear();
+        }
+    }
+
+    private L2OrderBook.Line line(OrderSide side, TreeMap<BigDecimal, PriceLevel> depth, BigDecimal bucket) {
+        if (step == null) {
+            PriceLevel level = depth.get(bucket);
+            return new L2OrderBook.Line(bucket, level.getRemainingSize(), level.size());
+        }
+
+        // asks in (bucket - step, bucket], bids in [bucket, bucket + step)
+        BigDecimal from = side == OrderSide.SELL ? bucket.subtract(step) : bucket.add(step);
+        BigDecimal size = BigDecimal.ZERO;
+        int orderCount = 0;
+        for (PriceLevel level : depth.subMap(from, false, bucket, true).values()) {
+            size = size.add(level.getRemainingSize());
+            orderCount += level.size();
+        }
+        return new L2OrderBook.Line(bucket, size, orderCount);
+    }
+
+    private BigDecimal bucket(OrderSide side, BigDecimal price) {
+        if (step == null) {
+            return price;
+        }
+        BigDecimal bucket = price.divide(step, 0, side == OrderSide.SELL ? RoundingMode.CEILING : RoundingMode.FLOOR)
+                .multiply(step);
+        return bucket.scale() < 0 ? bucket.setScale(0) : bucket;
+    }
+}
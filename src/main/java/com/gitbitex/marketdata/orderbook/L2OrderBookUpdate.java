@@ -0,0 +1,21 @@
+package com.gitbitex.marketdata.orderbook;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Changed price levels of a product's level2 view. {@code prevSequence} is the sequence of the previous update (or
+ * snapshot) of the same product, so a gap can be detected without knowing how engine sequences are assigned.
+ */
+@Getter
+@Setter
+public class L2OrderBookUpdate {
+    private String productId;
+    private String aggregation;
+    private long sequence;
+    private long prevSequence;
+    private long time;
+    private List<L2OrderBookChange> changes;
+}
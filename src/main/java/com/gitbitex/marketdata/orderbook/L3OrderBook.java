@@ -5,6 +5,7 @@ import com.gitbitex.matchingengine.OrderBook;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -41,9 +42,13 @@ public class L3OrderBook {
         }
 
         public Line(Order order) {
-            this.add(order.getId());
-            this.add(order.getPrice().stripTrailingZeros().toPlainString());
-            this.add(order.getRemainingSize().stripTrailingZeros().toPlainString());
+            this(order.getId(), order.getPrice(), order.getRemainingSize());
+        }
+
+        public Line(String orderId, BigDecimal price, BigDecimal remainingSize) {
+            this.add(orderId);
+            this.add(price.stripTrailingZeros().toPlainString());
+            this.add(remainingSize.stripTrailingZeros().toPlainString());
         }
     }
 }
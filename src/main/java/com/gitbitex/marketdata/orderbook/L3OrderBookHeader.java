@@ -0,0 +1,19 @@
+package com.gitbitex.marketdata.orderbook;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Describes a level3 snapshot whose orders are stored in separate chunks, so neither the writer nor the reader ever
+ * has to hold the whole book as one string.
+ */
+@Getter
+@Setter
+public class L3OrderBookHeader {
+    private String productId;
+    private long sequence;
+    private long tradeId;
+    private long time;
+    private int askChunks;
+    private int bidChunks;
+}
@@ -0,0 +1,82 @@
+package com.gitbitex.marketdata.orderbook;
+
+import com.gitbitex.enums.OrderSide;
+import com.gitbitex.enums.OrderStatus;
+import com.gitbitex.matchingengine.Order;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Resident index of open orders by user, maintained from the matching engine message stream. Orders stored here are
+ * never mutated, every order message carries a new {@link Order} instance. The orders of a user are kept sorted
+ * newest first, so listing them needs no sort.
+ */
+@Component
+public class OpenOrderIndex {
+    private final Map<String, ConcurrentSkipListMap<OrderKey, Order>> ordersByUserId = new ConcurrentHashMap<>();
+    /**
+     * False until the index has been restored from the engine snapshot and can answer queries.
+     */
+    @Getter
+    @Setter
+    private volatile boolean ready;
+
+    public void clear() {
+        ordersByUserId.clear();
+    }
+
+    public void onOrder(Order order) {
+        if (order.getStatus() == OrderStatus.OPEN) {
+            ordersByUserId.computeIfAbsent(order.getUserId(), k -> new ConcurrentSkipListMap<>())
+                    .put(new OrderKey(order), order);
+            return;
+        }
+
+        ConcurrentSkipListMap<OrderKey, Order> userOrders = ordersByUserId.get(order.getUserId());
+        if (userOrders != null) {
+            userOrders.remove(new OrderKey(order));
+            if (userOrders.isEmpty()) {
+                ordersByUserId.remove(order.getUserId(), userOrders);
+            }
+        }
+    }
+
+    /**
+     * Returns the open orders of the user, newest first, ordered by (sequence, id) like the order collection.
+     */
+    public List<Order> getOrders(String userId, String productId, OrderSide side) {
+        ConcurrentSkipListMap<OrderKey, Order> userOrders = ordersByUserId.get(userId);
+        if (userOrders == null) {
+            return Collections.emptyList();
+        }
+        List<Order> orders = new ArrayList<>();
+        for (Order order : userOrders.values()) {
+            if ((productId == null || productId.equals(order.getProductId()))
+                    && (side == null || side == order.getSide())) {
+                orders.add(order);
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Sorts by (sequence, id), descending. The sequence of an order never changes, so it can be removed by the key
+     * of any later message of it.
+     */
+    private record OrderKey(long sequence, String id) implements Comparable<OrderKey> {
+        private OrderKey(Order order) {
+            this(order.getSequence(), order.getId());
+        }
+
+        @Override
+        public int compareTo(OrderKey other) {
+            int result = Long.compare(other.sequence, sequence);
+            return result != 0 ? result : other.id.compareTo(id);
+        }
+    }
+}
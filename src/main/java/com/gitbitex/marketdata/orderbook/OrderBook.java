@@ -1,20 +1,27 @@
 package com.gitbitex.marketdata.orderbook;
 
 import com.gitbitex.enums.OrderSide;
-import com.gitbitex.matchingengine.Depth;
 import com.gitbitex.matchingengine.Order;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.math.BigDecimal;
 import java.util.Comparator;
+import java.util.TreeMap;
 
+/**
+ * The marketdata copy of a product's book. Only what the level1/2/3 books need is kept of each resting order, see
+ * {@link PriceLevel}.
+ */
 @Getter
 public class OrderBook {
     private final String productId;
-    private final Depth asks = new Depth(Comparator.naturalOrder());
-    private final Depth bids = new Depth(Comparator.reverseOrder());
+    private final TreeMap<BigDecimal, PriceLevel> asks = new TreeMap<>(Comparator.naturalOrder());
+    private final TreeMap<BigDecimal, PriceLevel> bids = new TreeMap<>(Comparator.reverseOrder());
     @Setter
     private long sequence;
+    @Setter
+    private long tradeId;
 
     public OrderBook(String productId) {
         this.productId = productId;
@@ -26,12 +33,28 @@ public class OrderBook {
     }
 
     public void addOrder(Order order) {
-        var depth = order.getSide() == OrderSide.BUY ? bids : asks;
-        depth.addOrder(order);
+        getLevels(order.getSide()).computeIfAbsent(order.getPrice(), PriceLevel::new)
+                .addOrder(order.getId(), order.getRemainingSize());
+    }
+
+    public boolean containsOrder(Order order) {
+        PriceLevel level = getLevels(order.getSide()).get(order.getPrice());
+        return level != null && level.containsOrder(order.getId());
     }
 
     public void removeOrder(Order order) {
-        var depth = order.getSide() == OrderSide.BUY ? bids : asks;
-        depth.removeOrder(order);
+        TreeMap<BigDecimal, PriceLevel> levels = getLevels(order.getSide());
+        PriceLevel level = levels.get(order.getPrice());
+        if (level == null) {
+            return;
+        }
+        level.removeOrder(order.getId());
+        if (level.isEmpty()) {
+            levels.remove(order.getPrice());
+        }
+    }
+
+    private TreeMap<BigDecimal, PriceLevel> getLevels(OrderSide side) {
+        return side == OrderSide.BUY ? bids : asks;
     }
 }
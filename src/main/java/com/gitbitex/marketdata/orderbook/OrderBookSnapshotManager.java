@@ -1,70 +1,310 @@
 package com.gitbitex.marketdata.orderbook;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.gitbitex.marketdata.util.OrderBookCodec;
+import com.gitbitex.matchingengine.message.OrderBookMessage;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBucket;
 import org.redisson.api.RTopic;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
 import org.redisson.client.codec.StringCodec;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
 @Component
 @Slf4j
 public class OrderBookSnapshotManager {
+    private static final int L3_CHUNK_SIZE = 5000;
+    /**
+     * How long the chunks of a replaced snapshot are kept for readers still streaming it, and how long the chunks of
+     * a snapshot whose header was never written live
+     */
+    private static final long L3_CHUNK_TTL_SECONDS = 300;
+    /**
+     * How long a decoded book is served without reading redis. Announcements of new books are not guaranteed to
+     * arrive, this bounds how long a missed one leaves a node on an old book.
+     */
+    private static final long CACHE_MAX_AGE_MS = 1000;
     private final RedissonClient redissonClient;
-    private final RTopic l2BatchNotifyTopic;
+    private final RTopic l2UpdateTopic;
+    private final RTopic l1UpdateTopic;
+    private final RTopic orderBookLogTopic;
+    /**
+     * The latest sequence seen of every book, keyed like the books
+     */
+    private final ConcurrentHashMap<String, Long> l2Sequences = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> l1Sequences = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CachedBook> l2Cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CachedBook> l1Cache = new ConcurrentHashMap<>();
+    private long cacheMaxAgeMs = CACHE_MAX_AGE_MS;
 
     public OrderBookSnapshotManager(RedissonClient redissonClient) {
         this.redissonClient = redissonClient;
-        this.l2BatchNotifyTopic = redissonClient.getTopic("l2_batch", StringCodec.INSTANCE);
+        this.l2UpdateTopic = redissonClient.getTopic("l2_update", StringCodec.INSTANCE);
+        this.l1UpdateTopic = redissonClient.getTopic("l1_update", StringCodec.INSTANCE);
+        this.orderBookLogTopic = redissonClient.getTopic("orderBookLog", StringCodec.INSTANCE);
+        this.l2UpdateTopic.addListener(String.class, (c, msg) -> {
+            JSONObject update = JSON.parseObject(msg);
+            l2Sequences.merge(bookId(update.getString("productId"), update.getString("aggregation")),
+                    update.getLongValue("sequence"), Math::max);
+        });
+        this.l1UpdateTopic.addListener(String.class, (c, msg) -> {
+            JSONObject update = JSON.parseObject(msg);
+            l1Sequences.merge(update.getString("productId"), update.getLongValue("sequence"), Math::max);
+        });
     }
 
-    public void saveL3OrderBook(L3OrderBook l3OrderBook) {
-        redissonClient.getBucket(keyForL3(l3OrderBook.getProductId()), StringCodec.INSTANCE).set(
-                JSON.toJSONString(l3OrderBook));
+    /**
+     * Records the shard count of the order book threads when the first node starts, and fails if this node was
+     * configured with another one. Nodes that disagree on the count disagree on which shard owns a product, so some
+     * books would be kept twice and others not at all. To change the count, stop every node, delete the key and start
+     * them with the new count.
+     */
+    public void checkShardCount(int shardCount) {
+        RBucket<String> bucket = redissonClient.getBucket("order_book_shard_count", StringCodec.INSTANCE);
+        bucket.setIfAbsent(String.valueOf(shardCount));
+        String recorded = bucket.get();
+        if (recorded != null && !recorded.equals(String.valueOf(shardCount))) {
+            throw new IllegalStateException("gbe.order-book-shard-count is " + shardCount
+                    + " but the running cluster uses " + recorded);
+        }
     }
 
-    public L3OrderBook getL3OrderBook(String productId) {
+    /**
+     * Writes the orders of the book in chunks of {@link #L3_CHUNK_SIZE}, then the header that points to them. Chunks
+     * are keyed by sequence. The chunks of the current header never expire, however long the book stays idle; those
+     * of the header it replaces expire after {@link #L3_CHUNK_TTL_SECONDS}, so a reader holding the older header can
+     * still finish reading.
+     */
+    public void saveL3OrderBook(L3OrderBookHeader header, List<PriceLevel> asks, List<PriceLevel> bids) {
+        // written with a ttl, so that nothing is left behind if the header is never written
+        header.setAskChunks(saveL3Chunks(header, "asks", asks));
+        header.setBidChunks(saveL3Chunks(header, "bids", bids));
+        Object previous = redissonClient.getBucket(keyForL3(header.getProductId()), StringCodec.INSTANCE)
+                .getAndSet(JSON.toJSONString(header));
+        forEachL3Chunk(header, chunk -> chunk.clearExpire());
+
+        if (previous != null) {
+            L3OrderBookHeader previousHeader = JSON.parseObject(previous.toString(), L3OrderBookHeader.class);
+            if (previousHeader.getSequence() != header.getSequence()) {
+                forEachL3Chunk(previousHeader, chunk -> chunk.expire(Duration.ofSeconds(L3_CHUNK_TTL_SECONDS)));
+            }
+        }
+    }
+
+    public L3OrderBookHeader getL3OrderBookHeader(String productId) {
         Object o = redissonClient.getBucket(keyForL3(productId), StringCodec.INSTANCE).get();
         if (o == null) {
             return null;
         }
-        return JSON.parseObject(o.toString(), L3OrderBook.class);
+        return JSON.parseObject(o.toString(), L3OrderBookHeader.class);
+    }
+
+    /**
+     * Streams the level3 snapshot of the header as JSON one chunk at a time.
+     */
+    public void writeL3OrderBook(L3OrderBookHeader header, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write("{\"productId\":" + JSON.toJSONString(header.getProductId()));
+        writer.write(",\"sequence\":" + header.getSequence());
+        writer.write(",\"tradeId\":" + header.getTradeId());
+        writer.write(",\"time\":" + header.getTime());
+        writer.write(",\"asks\":[");
+        writeL3Chunks(writer, header, "asks", header.getAskChunks());
+        writer.write("],\"bids\":[");
+        writeL3Chunks(writer, header, "bids", header.getBidChunks());
+        writer.write("]}");
+        writer.flush();
+    }
+
+    /**
+     * Chunks hold whole price levels, so a chunk can exceed {@link #L3_CHUNK_SIZE} orders by one level.
+     */
+    private int saveL3Chunks(L3OrderBookHeader header, String side, List<PriceLevel> levels) {
+        int chunkCount = 0;
+        List<PriceLevel> chunk = new ArrayList<>();
+        int orderCount = 0;
+        for (PriceLevel level : levels) {
+            chunk.add(level);
+            orderCount += level.size();
+            if (orderCount >= L3_CHUNK_SIZE) {
+                saveL3Chunk(header, side, chunkCount++, chunk);
+                chunk = new ArrayList<>();
+                orderCount = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            saveL3Chunk(header, side, chunkCount++, chunk);
+        }
+        return chunkCount;
+    }
+
+    private void saveL3Chunk(L3OrderBookHeader header, String side, int index, List<PriceLevel> levels) {
+        redissonClient.getBucket(keyForL3Chunk(header, side, index), ByteArrayCodec.INSTANCE)
+                .set(OrderBookCodec.encodeL3(levels), L3_CHUNK_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void forEachL3Chunk(L3OrderBookHeader header, Consumer<RBucket<byte[]>> action) {
+        for (int i = 0; i < header.getAskChunks(); i++) {
+            action.accept(redissonClient.getBucket(keyForL3Chunk(header, "asks", i), ByteArrayCodec.INSTANCE));
+        }
+        for (int i = 0; i < header.getBidChunks(); i++) {
+            action.accept(redissonClient.getBucket(keyForL3Chunk(header, "bids", i), ByteArrayCodec.INSTANCE));
+        }
+    }
+
+    private void writeL3Chunks(Writer writer, L3OrderBookHeader header, String side, int chunkCount)
+            throws IOException {
+        boolean first = true;
+        for (int i = 0; i < chunkCount; i++) {
+            byte[] chunk = redissonClient.<byte[]>getBucket(keyForL3Chunk(header, side, i), ByteArrayCodec.INSTANCE)
+                    .get();
+            if (chunk == null) {
+                throw new IOException("level3 chunk expired: " + keyForL3Chunk(header, side, i));
+            }
+            for (L3OrderBook.Line line : OrderBookCodec.decodeL3(chunk)) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writer.write(JSON.toJSONString(line));
+                first = false;
+            }
+        }
     }
 
     public void saveL2OrderBook(L2OrderBook l2OrderBook) {
-        redissonClient.getBucket(keyForL2(l2OrderBook.getProductId()), StringCodec.INSTANCE).setAsync(
-                JSON.toJSONString(l2OrderBook));
+        redissonClient.getBucket(keyForL2(l2OrderBook.getProductId()), ByteArrayCodec.INSTANCE).setAsync(
+                OrderBookCodec.encodeL2(l2OrderBook));
     }
 
     public L2OrderBook getL2OrderBook(String productId) {
-        Object o = redissonClient.getBucket(keyForL2(productId), StringCodec.INSTANCE).get();
-        if (o == null) {
-            return null;
-        }
-        return JSON.parseObject(o.toString(), L2OrderBook.class);
+        byte[] data = redissonClient.<byte[]>getBucket(keyForL2(productId), ByteArrayCodec.INSTANCE).get();
+        return data != null ? OrderBookCodec.decodeL2(data) : null;
     }
 
+    /**
+     * Waits for the write, so that a reader who has seen a later update reads a book at least as new.
+     */
     public void saveL2BatchOrderBook(L2OrderBook l2OrderBook) {
-        String data = JSON.toJSONString(l2OrderBook);
-        redissonClient.getBucket(keyForL2Batch(l2OrderBook.getProductId()), StringCodec.INSTANCE)
-                .setAsync(data);
-        l2BatchNotifyTopic.publishAsync(data);
+        String bookId = bookId(l2OrderBook.getProductId(), l2OrderBook.getAggregation());
+        redissonClient.getBucket(keyForL2Batch(bookId), ByteArrayCodec.INSTANCE)
+                .set(OrderBookCodec.encodeL2(l2OrderBook));
+        cache(l2Cache, bookId, l2OrderBook);
+        l2Sequences.merge(bookId, l2OrderBook.getSequence(), Math::max);
+    }
+
+    /**
+     * Saves the level2 snapshot the update leads to, then publishes the update. Subscribers that find a gap in the
+     * update sequence resync from the snapshot, which is in place by the time they see the update.
+     */
+    public void saveL2Update(L2OrderBook l2OrderBook, L2OrderBookUpdate update) {
+        saveL2BatchOrderBook(l2OrderBook);
+        l2UpdateTopic.publishAsync(JSON.toJSONString(update));
     }
 
     public L2OrderBook getL2BatchOrderBook(String productId) {
-        Object o = redissonClient.getBucket(keyForL2Batch(productId), StringCodec.INSTANCE).get();
-        if (o == null) {
+        return getL2BatchOrderBook(productId, null);
+    }
+
+    /**
+     * Returns the decoded level2 book from the local cache, unless an update of the book newer than the cached copy
+     * has been seen or the copy is older than {@link #CACHE_MAX_AGE_MS}, in which case it is reloaded from redis.
+     * Every view of a product publishes its own updates, so an aggregated book is only reloaded early when it changed
+     * itself.
+     */
+    public L2OrderBook getL2BatchOrderBook(String productId, String aggregation) {
+        String bookId = bookId(productId, aggregation);
+        L2OrderBook cached = getCached(l2Cache, l2Sequences, bookId);
+        if (cached != null) {
+            return cached;
+        }
+
+        byte[] data = redissonClient.<byte[]>getBucket(keyForL2Batch(bookId), ByteArrayCodec.INSTANCE).get();
+        if (data == null) {
             return null;
         }
-        return JSON.parseObject(o.toString(), L2OrderBook.class);
+        L2OrderBook l2OrderBook = OrderBookCodec.decodeL2(data);
+        l2OrderBook.setAggregation(aggregation);
+        // cached as of its own sequence only: if it is older than an update already seen, the next read reloads it
+        return cache(l2Cache, bookId, l2OrderBook);
+    }
+
+    /**
+     * Publishes a batch of order book events of one product as a single JSON array.
+     */
+    public void publishOrderBookLog(List<OrderBookMessage> messages) {
+        orderBookLogTopic.publishAsync(JSON.toJSONString(messages));
     }
 
+    /**
+     * Saves the level1 book, then announces its sequence so that other nodes drop their cached copy.
+     */
+    public void saveL1OrderBook(L2OrderBook l1OrderBook) {
+        String productId = l1OrderBook.getProductId();
+        redissonClient.getBucket(keyForL1(productId), ByteArrayCodec.INSTANCE)
+                .set(OrderBookCodec.encodeL2(l1OrderBook));
+        cache(l1Cache, productId, l1OrderBook);
+        l1Sequences.merge(productId, l1OrderBook.getSequence(), Math::max);
+        JSONObject update = new JSONObject();
+        update.put("productId", productId);
+        update.put("sequence", l1OrderBook.getSequence());
+        l1UpdateTopic.publishAsync(update.toJSONString());
+    }
+
+    /**
+     * The level1 book is only saved when the best bid or ask changes, so a cached copy stays valid until a newer
+     * level1 book is announced, or until it is older than {@link #CACHE_MAX_AGE_MS}.
+     */
     public L2OrderBook getL1OrderBook(String productId) {
-        Object o = redissonClient.getBucket(keyForL1(productId), StringCodec.INSTANCE).get();
-        if (o == null) {
+        L2OrderBook cached = getCached(l1Cache, l1Sequences, productId);
+        if (cached != null) {
+            return cached;
+        }
+
+        byte[] data = redissonClient.<byte[]>getBucket(keyForL1(productId), ByteArrayCodec.INSTANCE).get();
+        if (data == null) {
+            return null;
+        }
+        return cache(l1Cache, productId, OrderBookCodec.decodeL2(data));
+    }
+
+    void setCacheMaxAgeMs(long cacheMaxAgeMs) {
+        this.cacheMaxAgeMs = cacheMaxAgeMs;
+    }
+
+    /**
+     * Returns the cached book if no newer one has been announced and it was cached recently enough, otherwise null.
+     */
+    private L2OrderBook getCached(ConcurrentHashMap<String, CachedBook> cache, ConcurrentHashMap<String, Long> sequences,
+                                  String key) {
+        CachedBook cached = cache.get(key);
+        if (cached == null || cached.book().getSequence() < sequences.getOrDefault(key, 0L)
+                || System.currentTimeMillis() - cached.cachedAt() >= cacheMaxAgeMs) {
             return null;
         }
-        return JSON.parseObject(o.toString(), L2OrderBook.class);
+        return cached.book();
+    }
+
+    /**
+     * Keeps the newer of the cached and the given book, as a slow reload must not replace a book saved meanwhile.
+     */
+    private L2OrderBook cache(ConcurrentHashMap<String, CachedBook> cache, String key, L2OrderBook orderBook) {
+        cache.merge(key, new CachedBook(orderBook, System.currentTimeMillis()),
+                (cached, loaded) -> loaded.book().getSequence() >= cached.book().getSequence() ? loaded : cached);
+        return orderBook;
     }
 
     private String keyForL1(String productId) {
@@ -75,11 +315,22 @@ public class OrderBookSnapshotManager {
         return productId + ".l2_order_book";
     }
 
-    private String keyForL2Batch(String productId) {
-        return productId + ".l2_batch_order_book";
+    private String keyForL2Batch(String bookId) {
+        return bookId + ".l2_batch_order_book";
+    }
+
+    private String bookId(String productId, String aggregation) {
+        return aggregation != null ? productId + "@" + aggregation : productId;
     }
 
     private String keyForL3(String productId) {
         return productId + ".l3_order_book";
     }
+
+    private String keyForL3Chunk(L3OrderBookHeader header, String side, int index) {
+        return keyForL3(header.getProductId()) + "." + header.getSequence() + "." + side + "." + index;
+    }
+
+    private record CachedBook(L2OrderBook book, long cachedAt) {
+    }
 }
@@ -0,0 +1,101 @@
+package com.gitbitex.marketdata.orderbook;
+
+import com.gitbitex.matchingengine.message.OrderBookMessage;
+import com.gitbitex.stripexecutor.HashedStripedExecutor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes and publishes order book snapshots off the thread that applies the engine messages. Everything handed in
+ * is an immutable version of the book, so the applier can keep mutating its books while the snapshots are written.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class OrderBookSnapshotPublisher {
+    private final OrderBookSnapshotManager orderBookSnapshotManager;
+    // level2 updates and full channel messages of a product must be published in order
+    private final HashedStripedExecutor publishExecutor =
+            new HashedStripedExecutor("OrderBookSnapshotPublisher", Runtime.getRuntime().availableProcessors());
+    private final ExecutorService l3SnapshotExecutor = Executors.newFixedThreadPool(2);
+    private final Set<String> l3SnapshotProductIds = ConcurrentHashMap.newKeySet();
+
+    public void publishL2(L2OrderBook l2OrderBook, @Nullable L2OrderBookUpdate update,
+                          @Nullable L2OrderBook l1OrderBook) {
+        publishExecutor.execute(l2OrderBook.getProductId(), () -> {
+            try {
+                if (update != null) {
+                    orderBookSnapshotManager.saveL2Update(l2OrderBook, update);
+                }
+                if (l1OrderBook != null) {
+                    orderBookSnapshotManager.saveL1OrderBook(l1OrderBook);
+                }
+            } catch (Exception e) {
+                logger.error("publish level2 order book error: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Saves every level2 view and the level1 book of a book that was just restored. Queued like the updates of the
+     * product, so the updates replayed on top of the restored book are saved after it.
+     */
+    public void publishRestored(List<L2OrderBook> l2OrderBooks, L2OrderBook l1OrderBook) {
+        publishExecutor.execute(l1OrderBook.getProductId(), () -> {
+            try {
+                for (L2OrderBook l2OrderBook : l2OrderBooks) {
+                    orderBookSnapshotManager.saveL2BatchOrderBook(l2OrderBook);
+                }
+                orderBookSnapshotManager.saveL1OrderBook(l1OrderBook);
+            } catch (Exception e) {
+                logger.error("save restored order book error: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    public void publishOrderBookLog(String productId, List<OrderBookMessage> messages) {
+        publishExecutor.execute(productId, () -> {
+            try {
+                orderBookSnapshotManager.publishOrderBookLog(messages);
+            } catch (Exception e) {
+                logger.error("publish order book log error: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Writes the level3 snapshot in the background. Returns false, without doing anything, if the previous snapshot
+     * of the product is still being written, so slow writes coalesce instead of piling up.
+     */
+    public boolean saveL3OrderBook(L3OrderBookHeader header, List<PriceLevel> asks, List<PriceLevel> bids) {
+        if (!l3SnapshotProductIds.add(header.getProductId())) {
+            return false;
+        }
+        l3SnapshotExecutor.execute(() -> {
+            try {
+                long t1 = System.currentTimeMillis();
+                orderBookSnapshotManager.saveL3OrderBook(header, asks, bids);
+                logger.info("saved level3 order book snapshot: productId={} sequence={} orders={} ({}ms)",
+                        header.getProductId(), header.getSequence(), orderCount(asks) + orderCount(bids),
+                        System.currentTimeMillis() - t1);
+            } catch (Exception e) {
+                logger.error("save level3 order book error: {}", e.getMessage(), e);
+            } finally {
+                l3SnapshotProductIds.remove(header.getProductId());
+            }
+        });
+        return true;
+    }
+
+    private int orderCount(List<PriceLevel> levels) {
+        return levels.stream().mapToInt(PriceLevel::size).sum();
+    }
+}
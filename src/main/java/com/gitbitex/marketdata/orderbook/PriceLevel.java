@@ -0,0 +1,384 @@
+package com.gitbitex.marketdata.orderbook;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * The resting orders of one price level, kept as parallel arrays in time priority instead of one object per order.
+ * Ids in the canonical UUID form are stored as two longs, anything else as a string, and remaining sizes as longs
+ * with {@link #SIZE_SCALE} decimals, so a resting order costs a few dozen bytes. A size that does not fit, because it
+ * has more decimals or would overflow the level total, is kept as a {@link BigDecimal} instead, so no order is ever
+ * refused.
+ * <p>
+ * Small levels are searched by a linear scan. Once a level holds more than {@link #INDEX_THRESHOLD} orders, an open
+ * addressing table of slots, hashed on the stored id, is kept next to the arrays; it costs an int per bucket and
+ * never holds an id of its own. Removed orders leave an empty slot behind so the table stays valid, and the slots
+ * are compacted once half of them are empty.
+ * <p>
+ * Reads never change the level, so it can be read while nobody writes to it. Reading by index is cheapest on a
+ * compacted level, such as a {@link #copy()}.
+ */
+public class PriceLevel {
+    public static final int SIZE_SCALE = 8;
+    static final int INDEX_THRESHOLD = 16;
+    private static final int INITIAL_CAPACITY = 4;
+    // a long holds any 18 digit number, 8 of them being decimals
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final long REMOVED = -1;
+    @Getter
+    private final BigDecimal price;
+    private long[] idHighs;
+    private long[] idLows;
+    private String[] ids;
+    private long[] sizes;
+    private BigDecimal[] exactSizes;
+    // slot + 1 of the orders of a crowded level, 0 marks a free bucket, null while the level is small
+    private int[] index;
+    private int slots;
+    private int count;
+    private long totalSize;
+    private BigDecimal exactTotalSize = BigDecimal.ZERO;
+
+    public PriceLevel(BigDecimal price) {
+        this(price, INITIAL_CAPACITY);
+    }
+
+    private PriceLevel(BigDecimal price, int capacity) {
+        this.price = price;
+        this.idHighs = new long[capacity];
+        this.idLows = new long[capacity];
+        this.sizes = new long[capacity];
+    }
+
+    /**
+     * Adds the order at the end of the level, or updates its remaining size if it is already resting.
+     */
+    public void addOrder(String orderId, BigDecimal remainingSize) {
+        UUID uuid = uuid(orderId);
+        int slot = slotOf(orderId, uuid);
+        if (slot >= 0) {
+            clearSize(slot);
+            setSize(slot, remainingSize);
+            return;
+        }
+
+        if (slots == sizes.length) {
+            if (count < slots / 2) {
+                compact(sizes.length);
+            } else {
+                resize(sizes.length * 2);
+                if (index != null) {
+                    buildIndex();
+                }
+            }
+        }
+        slot = slots++;
+        if (uuid != null) {
+            idHighs[slot] = uuid.getMostSignificantBits();
+            idLows[slot] = uuid.getLeastSignificantBits();
+        } else {
+            if (ids == null) {
+                ids = new String[sizes.length];
+            }
+            ids[slot] = orderId;
+        }
+        setSize(slot, remainingSize);
+        count++;
+        if (index != null) {
+            indexSlot(slot);
+        } else if (count > INDEX_THRESHOLD) {
+            buildIndex();
+        }
+    }
+
+    public boolean removeOrder(String orderId) {
+        int slot = slotOf(orderId, uuid(orderId));
+        if (slot < 0) {
+            return false;
+        }
+
+        clearSize(slot);
+        sizes[slot] = REMOVED;
+        if (ids != null) {
+            ids[slot] = null;
+        }
+        count--;
+        if (count == 0) {
+            slots = 0;
+            index = null;
+        } else if (count < slots / 2) {
+            // give memory back once a crowded level has drained
+            compact(sizes.length > INITIAL_CAPACITY && count < sizes.length / 4 ? sizes.length / 2 : sizes.length);
+        }
+        return true;
+    }
+
+    public boolean containsOrder(String orderId) {
+        return slotOf(orderId, uuid(orderId)) >= 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public BigDecimal getRemainingSize() {
+        if (exactTotalSize.signum() == 0) {
+            return decimal(totalSize);
+        }
+        return normalize(BigDecimal.valueOf(totalSize, SIZE_SCALE).add(exactTotalSize));
+    }
+
+    /**
+     * Returns the id of the order at the index, counting resting orders only, in time priority.
+     */
+    public String getOrderId(int index) {
+        int slot = slotAt(index);
+        if (ids != null && ids[slot] != null) {
+            return ids[slot];
+        }
+        return new UUID(idHighs[slot], idLows[slot]).toString();
+    }
+
+    public BigDecimal getRemainingSize(int index) {
+        int slot = slotAt(index);
+        if (exactSizes != null && exactSizes[slot] != null) {
+            return normalize(exactSizes[slot]);
+        }
+        return decimal(sizes[slot]);
+    }
+
+    /**
+     * Returns a compacted copy trimmed to the resting orders, which later changes of this level do not affect.
+     */
+    public PriceLevel copy() {
+        PriceLevel copy = new PriceLevel(price, Math.max(count, 1));
+        int j = 0;
+        for (int i = 0; i < slots; i++) {
+            if (sizes[i] == REMOVED) {
+                continue;
+            }
+            copy.idHighs[j] = idHighs[i];
+            copy.idLows[j] = idLows[i];
+            copy.sizes[j] = sizes[i];
+            if (ids != null && ids[i] != null) {
+                if (copy.ids == null) {
+                    copy.ids = new String[copy.sizes.length];
+                }
+                copy.ids[j] = ids[i];
+            }
+            if (exactSizes != null && exactSizes[i] != null) {
+                if (copy.exactSizes == null) {
+                    copy.exactSizes = new BigDecimal[copy.sizes.length];
+                }
+                copy.exactSizes[j] = exactSizes[i];
+            }
+            j++;
+        }
+        copy.slots = count;
+        copy.count = count;
+        copy.totalSize = totalSize;
+        copy.exactTotalSize = exactTotalSize;
+        return copy;
+    }
+
+    private int slotOf(String orderId, UUID uuid) {
+        if (index != null) {
+            int mask = index.length - 1;
+            int hash = uuid != null ? hash(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())
+                    : hash(orderId);
+            for (int bucket = hash & mask; ; bucket = (bucket + 1) & mask) {
+                int slot = index[bucket] - 1;
+                if (slot < 0) {
+                    return -1;
+                }
+                // buckets of removed orders stay until the next compaction
+                if (sizes[slot] != REMOVED && (uuid != null
+                        ? idLows[slot] == uuid.getLeastSignificantBits()
+                        && idHighs[slot] == uuid.getMostSignificantBits() && (ids == null || ids[slot] == null)
+                        : ids != null && orderId.equals(ids[slot]))) {
+                    return slot;
+                }
+            }
+        }
+
+        if (uuid == null) {
+            if (ids != null) {
+                for (int i = 0; i < slots; i++) {
+                    if (orderId.equals(ids[i])) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        long high = uuid.getMostSignificantBits();
+        long low = uuid.getLeastSignificantBits();
+        for (int i = 0; i < slots; i++) {
+            if (idLows[i] == low && idHighs[i] == high && sizes[i] != REMOVED && (ids == null || ids[i] == null)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int slotAt(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        if (slots == count) {
+            return index;
+        }
+        // skips the slots of removed orders, which stay until the next compaction
+        int resting = -1;
+        for (int i = 0; i < slots; i++) {
+            if (sizes[i] != REMOVED && ++resting == index) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("slot not found: " + index);
+    }
+
+    /**
+     * Keeps the size as a fixed-point long when it has at most {@link #SIZE_SCALE} decimals and the level total
+     * stays within a long, and as a decimal otherwise.
+     */
+    private void setSize(int slot, BigDecimal size) {
+        BigDecimal stripped = size.stripTrailingZeros();
+        if (stripped.scale() <= SIZE_SCALE && stripped.precision() - stripped.scale() + SIZE_SCALE <= MAX_LONG_DIGITS) {
+            long value = stripped.movePointRight(SIZE_SCALE).longValue();
+            long total = totalSize + value;
+            // the sizes of resting orders are never negative, so only a positive overflow can happen
+            if (value >= 0 && total >= totalSize) {
+                sizes[slot] = value;
+                totalSize = total;
+                return;
+            }
+        }
+        if (exactSizes == null) {
+            exactSizes = new BigDecimal[sizes.length];
+        }
+        sizes[slot] = 0;
+        exactSizes[slot] = size;
+        exactTotalSize = exactTotalSize.add(size);
+    }
+
+    private void clearSize(int slot) {
+        if (exactSizes != null && exactSizes[slot] != null) {
+            exactTotalSize = exactTotalSize.subtract(exactSizes[slot]);
+            exactSizes[slot] = null;
+        } else {
+            totalSize -= sizes[slot];
+        }
+        sizes[slot] = 0;
+    }
+
+    /**
+     * Moves the resting orders to the front of arrays of the given capacity, keeping their order.
+     */
+    private void compact(int capacity) {
+        int j = 0;
+        for (int i = 0; i < slots; i++) {
+            if (sizes[i] == REMOVED) {
+                continue;
+            }
+            idHighs[j] = idHighs[i];
+            idLows[j] = idLows[i];
+            sizes[j] = sizes[i];
+            if (ids != null) {
+                ids[j] = ids[i];
+            }
+            if (exactSizes != null) {
+                exactSizes[j] = exactSizes[i];
+            }
+            j++;
+        }
+        if (ids != null) {
+            Arrays.fill(ids, j, slots, null);
+        }
+        if (exactSizes != null) {
+            Arrays.fill(exactSizes, j, slots, null);
+        }
+        slots = j;
+        if (capacity != sizes.length) {
+            resize(capacity);
+        }
+        if (count > INDEX_THRESHOLD) {
+            buildIndex();
+        } else {
+            index = null;
+        }
+    }
+
+    /**
+     * Sizes the table to at least twice the capacity of the arrays, so it is at most half full even once every slot
+     * is used, and has to be rebuilt whenever the arrays grow.
+     */
+    private void buildIndex() {
+        index = new int[Integer.highestOneBit(sizes.length * 2 - 1) << 1];
+        for (int i = 0; i < slots; i++) {
+            if (sizes[i] != REMOVED) {
+                indexSlot(i);
+            }
+        }
+    }
+
+    private void indexSlot(int slot) {
+        int mask = index.length - 1;
+        int bucket = (ids != null && ids[slot] != null ? hash(ids[slot]) : hash(idHighs[slot], idLows[slot])) & mask;
+        while (index[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        index[bucket] = slot + 1;
+    }
+
+    private static int hash(long high, long low) {
+        long h = (high ^ low * 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ h >>> 32);
+    }
+
+    private static int hash(String orderId) {
+        return hash(orderId.hashCode(), 0);
+    }
+
+    private void resize(int capacity) {
+        idHighs = Arrays.copyOf(idHighs, capacity);
+        idLows = Arrays.copyOf(idLows, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        if (ids != null) {
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        if (exactSizes != null) {
+            exactSizes = Arrays.copyOf(exactSizes, capacity);
+        }
+    }
+
+    private static UUID uuid(String orderId) {
+        if (orderId.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(orderId);
+            // only ids that come back unchanged can be stored as numbers
+            return uuid.toString().equals(orderId) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static BigDecimal decimal(long value) {
+        return normalize(BigDecimal.valueOf(value, SIZE_SCALE));
+    }
+
+    private static BigDecimal normalize(BigDecimal value) {
+        BigDecimal decimal = value.stripTrailingZeros();
+        return decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+    }
+}
@@ -3,24 +3,39 @@ package com.gitbitex.marketdata.repository;
 import com.gitbitex.enums.OrderSide;
 import com.gitbitex.enums.OrderStatus;
 import com.gitbitex.marketdata.entity.OrderEntity;
+import com.gitbitex.openapi.model.OrderCursor;
 import com.gitbitex.openapi.model.PagedList;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.*;
+import lombok.SneakyThrows;
 import org.bson.conversions.Bson;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class OrderRepository {
     private final MongoCollection<OrderEntity> collection;
+    private final Cache<String, Long> countCache = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(10, TimeUnit.SECONDS)
+            .build();
 
     public OrderRepository(MongoDatabase database) {
         this.collection = database.getCollection(OrderEntity.class.getSimpleName().toLowerCase(), OrderEntity.class);
         this.collection.createIndex(Indexes.descending("userId", "productId", "sequence"));
+        this.collection.createIndex(Indexes.descending("userId", "sequence", "_id"));
+        this.collection.createIndex(Indexes.descending("userId", "status", "sequence", "_id"));
+        // open orders are a tiny fraction of the history, keep them in their own small index
+        this.collection.createIndex(Indexes.descending("userId", "productId", "sequence"),
+                new IndexOptions().name("open_orders")
+                        .partialFilterExpression(Filters.eq("status", OrderStatus.OPEN.name())));
     }
 
     public OrderEntity findByOrderId(String orderId) {
@@ -31,6 +46,55 @@ public class OrderRepository {
 
     public PagedList<OrderEntity> findAll(String userId, String productId, OrderStatus status, OrderSide side, int pageIndex,
                                           int pageSize) {
+        Bson filter = filter(userId, productId, status, side);
+        List<OrderEntity> orders = this.collection
+                .find(filter)
+                .sort(sort(productId))
+                .skip((pageIndex - 1) * pageSize)
+                .limit(pageSize)
+                .into(new ArrayList<>());
+        return new PagedList<>(orders, count(filter));
+    }
+
+    /**
+     * Keyset pagination: returns the orders that come after the given cursor (newest first). The cursor of the next
+     * page is returned in {@link PagedList#getNext()}, or null if this is the last page.
+     */
+    public PagedList<OrderEntity> findAll(String userId, String productId, OrderStatus status, OrderSide side,
+                                          OrderCursor cursor, int pageSize, boolean withCount) {
+        Bson filter = filter(userId, productId, status, side);
+        Bson pageFilter = filter;
+        if (cursor != null) {
+            pageFilter = Filters.and(filter, Filters.or(
+                    Filters.lt("sequence", cursor.sequence()),
+                    Filters.and(Filters.eq("sequence", cursor.sequence()), Filters.lt("_id", cursor.orderId()))));
+        }
+
+        List<OrderEntity> orders = this.collection
+                .find(pageFilter)
+                .sort(sort(productId))
+                .limit(pageSize)
+                .into(new ArrayList<>());
+
+        PagedList<OrderEntity> page = new PagedList<>(orders, withCount ? count(filter) : -1);
+        if (orders.size() == pageSize) {
+            OrderEntity last = orders.get(orders.size() - 1);
+            page.setNext(new OrderCursor(last.getSequence(), last.getId()).toString());
+        }
+        return page;
+    }
+
+    public void saveAll(Collection<OrderEntity> orders) {
+        List<WriteModel<OrderEntity>> writeModels = new ArrayList<>();
+        for (OrderEntity item : orders) {
+            Bson filter = Filters.eq("_id", item.getId());
+            WriteModel<OrderEntity> writeModel = new ReplaceOneModel<>(filter, item, new ReplaceOptions().upsert(true));
+            writeModels.add(writeModel);
+        }
+        collection.bulkWrite(writeModels, new BulkWriteOptions().ordered(false));
+    }
+
+    private Bson filter(String userId, String productId, OrderStatus status, OrderSide side) {
         Bson filter = Filters.empty();
         if (userId != null) {
             filter = Filters.and(Filters.eq("userId", userId), filter);
@@ -44,24 +108,23 @@ public class OrderRepository {
         if (side != null) {
             filter = Filters.and(Filters.eq("side", side.name()), filter);
         }
+        return filter;
+    }
 
-        long count = this.collection.countDocuments(filter);
-        List<OrderEntity> orders = this.collection
-                .find(filter)
-                .sort(Sorts.descending("sequence"))
-                .skip(pageIndex - 1)
-                .limit(pageSize)
-                .into(new ArrayList<>());
-        return new PagedList<>(orders, count);
+    /**
+     * Order sequences are only unique within a product, so ties are broken by id when listing across products.
+     */
+    private Bson sort(String productId) {
+        return productId != null
+                ? Sorts.descending("sequence")
+                : Sorts.descending("sequence", "_id");
     }
 
-    public void saveAll(Collection<OrderEntity> orders) {
-        List<WriteModel<OrderEntity>> writeModels = new ArrayList<>();
-        for (OrderEntity item : orders) {
-            Bson filter = Filters.eq("_id", item.getId());
-            WriteModel<OrderEntity> writeModel = new ReplaceOneModel<>(filter, item, new ReplaceOptions().upsert(true));
-            writeModels.add(writeModel);
-        }
-        collection.bulkWrite(writeModels, new BulkWriteOptions().ordered(false));
+    /**
+     * Counting a heavy trader's history is a full index range scan, so the result is cached for a few seconds.
+     */
+    @SneakyThrows
+    private long count(Bson filter) {
+        return countCache.get(filter.toBsonDocument().toJson(), () -> this.collection.countDocuments(filter));
     }
 }
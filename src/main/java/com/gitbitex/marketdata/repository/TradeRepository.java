@@ -1,15 +1,15 @@
 package com.gitbitex.marketdata.repository;
 
 import com.gitbitex.marketdata.entity.TradeEntity;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.*;
 import org.bson.conversions.Bson;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 
 @Component
 public class TradeRepository {
@@ -18,23 +18,60 @@ public class TradeRepository {
     public TradeRepository(MongoDatabase database) {
         this.collection = database.getCollection(TradeEntity.class.getSimpleName().toLowerCase(), TradeEntity.class);
         this.collection.createIndex(Indexes.descending("productId", "sequence"));
+        this.collection.createIndex(Indexes.ascending("productId", "time"));
     }
 
     public List<TradeEntity> findByProductId(String productId, int limit) {
-        return this.collection.find(Filters.eq("productId", productId))
+        return findByProductId(productId, null, null, limit);
+    }
+
+    /**
+     * Returns trades in [startTime, endTime), newest first. Either bound may be null.
+     */
+    public List<TradeEntity> findByProductId(String productId, Date startTime, Date endTime, int limit) {
+        Bson filter = Filters.eq("productId", productId);
+        if (startTime != null) {
+            filter = Filters.and(filter, Filters.gte("time", startTime));
+        }
+        if (endTime != null) {
+            filter = Filters.and(filter, Filters.lt("time", endTime));
+        }
+        return this.collection.find(filter)
                 .sort(Sorts.descending("sequence"))
                 .limit(limit)
                 .into(new ArrayList<>());
     }
 
+    /**
+     * Returns the oldest trades that happened before the given time, in sequence order.
+     */
+    public List<TradeEntity> findOldestBefore(String productId, Date time, int limit) {
+        return this.collection.find(Filters.and(Filters.eq("productId", productId), Filters.lt("time", time)))
+                .sort(Sorts.ascending("sequence"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    public void deleteByIds(Collection<String> ids) {
+        this.collection.deleteMany(Filters.in("_id", ids));
+    }
+
+    /**
+     * Trades are immutable, so they are only ever inserted. The insert is unordered and goes on past trades that have
+     * already been saved (e.g. messages replayed after a restart), only other errors are thrown.
+     */
     public void saveAll(Collection<TradeEntity> trades) {
-        List<WriteModel<TradeEntity>> writeModels = new ArrayList<>();
-        for (TradeEntity item : trades) {
-            Bson filter = Filters.eq("_id", item.getId());
-            WriteModel<TradeEntity> writeModel = new ReplaceOneModel<>(filter, item, new ReplaceOptions().upsert(true));
-            writeModels.add(writeModel);
+        if (trades.isEmpty()) {
+            return;
+        }
+        try {
+            collection.insertMany(new ArrayList<>(trades), new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            if (e.getWriteConcernError() != null || e.getWriteErrors().stream()
+                    .anyMatch(x -> ErrorCategory.fromErrorCode(x.getCode()) != ErrorCategory.DUPLICATE_KEY)) {
+                throw e;
+            }
         }
-        collection.bulkWrite(writeModels, new BulkWriteOptions().ordered(false));
     }
 
 }
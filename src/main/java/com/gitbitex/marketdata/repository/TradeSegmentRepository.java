@@ -0,0 +1,58 @@
+package com.gitbitex.marketdata.repository;
+
+import com.gitbitex.marketdata.entity.TradeSegment;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.*;
+import org.bson.conversions.Bson;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@Component
+public class TradeSegmentRepository {
+    private final MongoCollection<TradeSegment> collection;
+
+    public TradeSegmentRepository(MongoDatabase database) {
+        this.collection = database.getCollection(TradeSegment.class.getSimpleName().toLowerCase(),
+                TradeSegment.class);
+        this.collection.createIndex(Indexes.descending("productId", "time"));
+    }
+
+    public TradeSegment findById(String id) {
+        return this.collection
+                .find(Filters.eq("_id", id))
+                .first();
+    }
+
+    /**
+     * Returns segments whose hour overlaps [startTime, endTime], newest first. Times are epoch seconds and may be
+     * null for an open range.
+     */
+    public List<TradeSegment> findByProductId(String productId, Long startTime, Long endTime, int limit) {
+        Bson filter = Filters.eq("productId", productId);
+        if (startTime != null) {
+            filter = Filters.and(filter, Filters.gt("time", startTime - 3600));
+        }
+        if (endTime != null) {
+            filter = Filters.and(filter, Filters.lte("time", endTime));
+        }
+        return this.collection.find(filter)
+                .sort(Sorts.descending("time"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    public void saveAll(Collection<TradeSegment> segments) {
+        List<WriteModel<TradeSegment>> writeModels = new ArrayList<>();
+        for (TradeSegment item : segments) {
+            Bson filter = Filters.eq("_id", item.getId());
+            WriteModel<TradeSegment> writeModel = new ReplaceOneModel<>(filter, item,
+                    new ReplaceOptions().upsert(true));
+            writeModels.add(writeModel);
+        }
+        collection.bulkWrite(writeModels, new BulkWriteOptions().ordered(false));
+    }
+}
@@ -0,0 +1,125 @@
+package com.gitbitex.marketdata.util;
+
+import com.gitbitex.marketdata.orderbook.L2OrderBook;
+import com.gitbitex.marketdata.orderbook.L3OrderBook;
+import com.gitbitex.marketdata.orderbook.PriceLevel;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary encoding of the order books kept in redis. The first byte tells whether the rest is deflated, which is only
+ * done for values larger than {@link #COMPRESSION_THRESHOLD} bytes:
+ * <pre>
+ * level1/level2: productId | sequence | time | ask count | asks | bid count | bids, line = price | size | order count
+ * level3 chunk:  count | lines, line = orderId | price | remaining size
+ * </pre>
+ */
+public class OrderBookCodec {
+    private static final int COMPRESSION_THRESHOLD = 512;
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+
+    public static byte[] encodeL2(L2OrderBook l2OrderBook) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(l2OrderBook.getProductId());
+            CodecUtil.writeVarLong(out, l2OrderBook.getSequence());
+            CodecUtil.writeVarLong(out, l2OrderBook.getTime());
+            writeL2Lines(out, l2OrderBook.getAsks());
+            writeL2Lines(out, l2OrderBook.getBids());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return pack(bytes.toByteArray());
+    }
+
+    public static L2OrderBook decodeL2(byte[] data) {
+        try (DataInputStream in = unpack(data)) {
+            L2OrderBook l2OrderBook = new L2OrderBook();
+            l2OrderBook.setProductId(in.readUTF());
+            l2OrderBook.setSequence(CodecUtil.readVarLong(in));
+            l2OrderBook.setTime(CodecUtil.readVarLong(in));
+            l2OrderBook.setAsks(readL2Lines(in));
+            l2OrderBook.setBids(readL2Lines(in));
+            return l2OrderBook;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static byte[] encodeL3(List<PriceLevel> levels) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            CodecUtil.writeVarLong(out, levels.stream().mapToInt(PriceLevel::size).sum());
+            for (PriceLevel level : levels) {
+                for (int i = 0; i < level.size(); i++) {
+                    out.writeUTF(level.getOrderId(i));
+                    CodecUtil.writeDecimal(out, level.getPrice());
+                    CodecUtil.writeDecimal(out, level.getRemainingSize(i));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return pack(bytes.toByteArray());
+    }
+
+    public static List<L3OrderBook.Line> decodeL3(byte[] data) {
+        try (DataInputStream in = unpack(data)) {
+            int count = (int) CodecUtil.readVarLong(in);
+            List<L3OrderBook.Line> lines = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                lines.add(new L3OrderBook.Line(in.readUTF(), CodecUtil.readDecimal(in), CodecUtil.readDecimal(in)));
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeL2Lines(DataOutputStream out, List<L2OrderBook.Line> lines) throws IOException {
+        CodecUtil.writeVarLong(out, lines.size());
+        for (L2OrderBook.Line line : lines) {
+            CodecUtil.writeDecimal(out, (BigDecimal) line.get(0));
+            CodecUtil.writeDecimal(out, (BigDecimal) line.get(1));
+            CodecUtil.writeVarLong(out, ((Number) line.get(2)).longValue());
+        }
+    }
+
+    private static List<L2OrderBook.Line> readL2Lines(DataInputStream in) throws IOException {
+        int count = (int) CodecUtil.readVarLong(in);
+        List<L2OrderBook.Line> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(new L2OrderBook.Line(CodecUtil.readDecimal(in), CodecUtil.readDecimal(in),
+                    (int) CodecUtil.readVarLong(in)));
+        }
+        return lines;
+    }
+
+    private static byte[] pack(byte[] raw) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (raw.length < COMPRESSION_THRESHOLD) {
+            bytes.write(RAW);
+            bytes.writeBytes(raw);
+            return bytes.toByteArray();
+        }
+        bytes.write(DEFLATED);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED))) {
+            out.write(raw);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream unpack(byte[] data) {
+        InputStream in = new ByteArrayInputStream(data, 1, data.length - 1);
+        return new DataInputStream(data[0] == DEFLATED ? new InflaterInputStream(in) : in);
+    }
+}
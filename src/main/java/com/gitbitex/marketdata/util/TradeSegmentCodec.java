@@ -0,0 +1,132 @@
+package com.gitbitex.marketdata.util;
+
+import com.gitbitex.enums.OrderSide;
+import com.gitbitex.marketdata.entity.TradeEntity;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes trades of one product into a compressed columnar block:
+ * <pre>
+ * count | sequences (delta) | times (delta, ms) | sides | prices | sizes | taker order ids | maker order ids
+ *       | createdAt (offset from time, ms) | updatedAt (offset from time, ms)
+ * </pre>
+ * Integers are written as (zigzag) varints, decimals as scale + unscaled value and strings and dates as nullable
+ * values (see {@link CodecUtil}), then the whole block is deflated. Every field of a trade is kept, so a segment can
+ * replace the rows it was built from.
+ * Trades must be sorted by sequence.
+ */
+public class TradeSegmentCodec {
+
+    public static byte[] encode(List<TradeEntity> trades) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes,
+                new Deflater(Deflater.BEST_COMPRESSION)))) {
+            CodecUtil.writeVarLong(out, trades.size());
+
+            long last = 0;
+            for (TradeEntity trade : trades) {
+                CodecUtil.writeVarLong(out, CodecUtil.zigzag(trade.getSequence() - last));
+                last = trade.getSequence();
+            }
+            last = 0;
+            for (TradeEntity trade : trades) {
+                CodecUtil.writeVarLong(out, CodecUtil.zigzag(trade.getTime().getTime() - last));
+                last = trade.getTime().getTime();
+            }
+            for (TradeEntity trade : trades) {
+                out.writeByte(trade.getSide().ordinal());
+            }
+            for (TradeEntity trade : trades) {
+                CodecUtil.writeDecimal(out, trade.getPrice());
+            }
+            for (TradeEntity trade : trades) {
+                CodecUtil.writeDecimal(out, trade.getSize());
+            }
+            for (TradeEntity trade : trades) {
+                CodecUtil.writeString(out, trade.getTakerOrderId());
+            }
+            for (TradeEntity trade : trades) {
+                CodecUtil.writeString(out, trade.getMakerOrderId());
+            }
+            for (TradeEntity trade : trades) {
+                writeOffset(out, trade.getTime(), trade.getCreatedAt());
+            }
+            for (TradeEntity trade : trades) {
+                writeOffset(out, trade.getTime(), trade.getUpdatedAt());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<TradeEntity> decode(String productId, byte[] data) {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            int count = (int) CodecUtil.readVarLong(in);
+            List<TradeEntity> trades = new ArrayList<>(count);
+
+            long last = 0;
+            for (int i = 0; i < count; i++) {
+                last += CodecUtil.unzigzag(CodecUtil.readVarLong(in));
+                TradeEntity trade = new TradeEntity();
+                trade.setId(productId + "-" + last);
+                trade.setProductId(productId);
+                trade.setSequence(last);
+                trades.add(trade);
+            }
+            last = 0;
+            for (TradeEntity trade : trades) {
+                last += CodecUtil.unzigzag(CodecUtil.readVarLong(in));
+                trade.setTime(new Date(last));
+            }
+            for (TradeEntity trade : trades) {
+                trade.setSide(OrderSide.values()[in.readByte()]);
+            }
+            for (TradeEntity trade : trades) {
+                trade.setPrice(CodecUtil.readDecimal(in));
+            }
+            for (TradeEntity trade : trades) {
+                trade.setSize(CodecUtil.readDecimal(in));
+            }
+            for (TradeEntity trade : trades) {
+                trade.setTakerOrderId(CodecUtil.readString(in));
+            }
+            for (TradeEntity trade : trades) {
+                trade.setMakerOrderId(CodecUtil.readString(in));
+            }
+            for (TradeEntity trade : trades) {
+                trade.setCreatedAt(readOffset(in, trade.getTime()));
+            }
+            for (TradeEntity trade : trades) {
+                trade.setUpdatedAt(readOffset(in, trade.getTime()));
+            }
+            return trades;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a date that may be null as its distance to the trade time, which is small for the usual timestamps.
+     */
+    private static void writeOffset(DataOutputStream out, Date time, Date date) throws IOException {
+        out.writeBoolean(date != null);
+        if (date != null) {
+            CodecUtil.writeVarLong(out, CodecUtil.zigzag(date.getTime() - time.getTime()));
+        }
+    }
+
+    private static Date readOffset(DataInputStream in, Date time) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new Date(time.getTime() + CodecUtil.unzigzag(CodecUtil.readVarLong(in)));
+    }
+}
@@ -46,6 +46,8 @@ public class MatchingEngine {
             executeCommand(placeOrderCommand);
         } else if (command instanceof CancelOrderCommand cancelOrderCommand) {
             executeCommand(cancelOrderCommand);
+        } else if (command instanceof CancelAllOrdersCommand cancelAllOrdersCommand) {
+            executeCommand(cancelAllOrdersCommand);
         } else if (command instanceof DepositCommand depositCommand) {
             executeCommand(depositCommand);
         } else if (command instanceof PutProductCommand putProductCommand) {
@@ -84,6 +86,19 @@ public class MatchingEngine {
         orderBook.cancelOrder(command.getOrderId());
     }
 
+    private void executeCommand(CancelAllOrdersCommand command) {
+        if (command.getProductId() == null) {
+            orderBooks.values().forEach(x -> x.cancelAllOrders(command.getUserId(), command.getSide()));
+            return;
+        }
+        OrderBook orderBook = orderBooks.get(command.getProductId());
+        if (orderBook == null) {
+            logger.warn("no such order book: {}", command.getProductId());
+            return;
+        }
+        orderBook.cancelAllOrders(command.getUserId(), command.getSide());
+    }
+
     private void sendCommandStartMessage(Command command, long offset) {
         CommandStartMessage message = new CommandStartMessage();
         message.setSequence(messageSequence.incrementAndGet());
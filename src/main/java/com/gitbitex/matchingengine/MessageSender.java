@@ -1,8 +1,11 @@
 package com.gitbitex.matchingengine;
 
 import com.gitbitex.AppProperties;
+import com.gitbitex.matchingengine.message.AccountMessage;
 import com.gitbitex.matchingengine.message.Message;
 import com.gitbitex.matchingengine.message.MessageSerializer;
+import com.gitbitex.matchingengine.message.OrderMessage;
+import com.gitbitex.matchingengine.message.TradeMessage;
 import com.gitbitex.middleware.kafka.KafkaProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.KafkaProducer;
@@ -11,11 +14,17 @@ import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 
 @Slf4j
 @Component
 public class MessageSender {
+    /**
+     * Who a message concerns, so that consumers can skip the messages they have no use for without decoding them.
+     */
+    public static final String USER_ID_HEADER = "userId";
+    public static final String PRODUCT_ID_HEADER = "productId";
     private final AppProperties appProperties;
     private final KafkaProperties kafkaProperties;
     private final KafkaProducer<String, Message> kafkaProducer;
@@ -28,9 +37,21 @@ public class MessageSender {
 
     public void send(Message message) {
         ProducerRecord<String, Message> record = new ProducerRecord<>(appProperties.getMatchingEngineMessageTopic(), message);
+        if (message instanceof OrderMessage orderMessage) {
+            addHeader(record, USER_ID_HEADER, orderMessage.getOrder().getUserId());
+            addHeader(record, PRODUCT_ID_HEADER, orderMessage.getOrder().getProductId());
+        } else if (message instanceof AccountMessage accountMessage) {
+            addHeader(record, USER_ID_HEADER, accountMessage.getAccount().getUserId());
+        } else if (message instanceof TradeMessage tradeMessage) {
+            addHeader(record, PRODUCT_ID_HEADER, tradeMessage.getTrade().getProductId());
+        }
         kafkaProducer.send(record);
     }
 
+    private void addHeader(ProducerRecord<String, Message> record, String key, String value) {
+        record.headers().add(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
     private KafkaProducer<String, Message> kafkaProducer() {
         Properties properties = new Properties();
         properties.put("bootstrap.servers", kafkaProperties.getBootstrapServers());
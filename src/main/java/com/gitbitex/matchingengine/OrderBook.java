@@ -11,9 +11,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Getter
@@ -25,6 +23,7 @@ public class OrderBook {
     private final Depth asks = new Depth(Comparator.naturalOrder());
     private final Depth bids = new Depth(Comparator.reverseOrder());
     private final Map<String, Order> orderById = new HashMap<>();
+    private final Map<String, Map<String, Order>> ordersByUserId = new HashMap<>();
     private final MessageSender messageSender;
     private final AtomicLong messageSequence;
     private long orderSequence;
@@ -103,6 +102,7 @@ public class OrderBook {
                 if (makerOrder.getStatus() == OrderStatus.FILLED || makerOrder.getStatus() == OrderStatus.CANCELLED) {
                     orderItr.remove();
                     orderById.remove(makerOrder.getId());
+                    removeUserOrder(makerOrder);
                     unholdOrderFunds(makerOrder, product);
                 }
 
@@ -141,6 +141,7 @@ public class OrderBook {
         if (order == null) {
             return;
         }
+        removeUserOrder(order);
 
         // remove order from depth
         var depth = order.getSide() == OrderSide.BUY ? bids : asks;
@@ -155,6 +156,22 @@ public class OrderBook {
         unholdOrderFunds(order, product);
     }
 
+    /**
+     * Cancels all resting orders of the user in a single pass over the user's orders, instead of looking each
+     * order up by id.
+     */
+    public void cancelAllOrders(String userId, OrderSide side) {
+        var userOrders = ordersByUserId.get(userId);
+        if (userOrders == null) {
+            return;
+        }
+        for (Order order : new ArrayList<>(userOrders.values())) {
+            if (side == null || order.getSide() == side) {
+                cancelOrder(order.getId());
+            }
+        }
+    }
+
     private Trade trade(Order takerOrder, Order makerOrder) {
         BigDecimal price = makerOrder.getPrice();
 
@@ -205,6 +222,18 @@ public class OrderBook {
         var depth = order.getSide() == OrderSide.BUY ? bids : asks;
         depth.addOrder(order);
         orderById.put(order.getId(), order);
+        ordersByUserId.computeIfAbsent(order.getUserId(), k -> new LinkedHashMap<>()).put(order.getId(), order);
+    }
+
+    private void removeUserOrder(Order order) {
+        var userOrders = ordersByUserId.get(order.getUserId());
+        if (userOrders == null) {
+            return;
+        }
+        userOrders.remove(order.getId());
+        if (userOrders.isEmpty()) {
+            ordersByUserId.remove(order.getUserId());
+        }
     }
 
     private boolean isPriceCrossed(Order takerOrder, BigDecimal makerOrderPrice) {
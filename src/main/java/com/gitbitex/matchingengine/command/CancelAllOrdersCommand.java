@@ -0,0 +1,23 @@
+package com.gitbitex.matchingengine.command;
+
+import com.gitbitex.enums.OrderSide;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class CancelAllOrdersCommand extends Command {
+    private String userId;
+    /**
+     * Cancel orders of all products if null
+     */
+    private String productId;
+    /**
+     * Cancel orders of both sides if null
+     */
+    private OrderSide side;
+
+    public CancelAllOrdersCommand() {
+        this.setType(CommandType.CANCEL_ALL_ORDERS);
+    }
+}
@@ -21,6 +21,8 @@ public class CommandDeserializer implements Deserializer<Command> {
                         PlaceOrderCommand.class);
                 case CANCEL_ORDER -> JSON.parseObject(bytes, 1, bytes.length - 1, Charset.defaultCharset(),
                         CancelOrderCommand.class);
+                case CANCEL_ALL_ORDERS -> JSON.parseObject(bytes, 1, bytes.length - 1, Charset.defaultCharset(),
+                        CancelAllOrdersCommand.class);
                 default -> {
                     logger.warn("Unhandled order message type: {}", commandType);
                     yield JSON.parseObject(bytes, 1, bytes.length - 1, Charset.defaultCharset(),
@@ -8,7 +8,8 @@ public enum CommandType {
     CANCEL_ORDER((byte) 2),
     DEPOSIT((byte) 3),
     WITHDRAWAL((byte) 4),
-    PUT_PRODUCT((byte) 5);
+    PUT_PRODUCT((byte) 5),
+    CANCEL_ALL_ORDERS((byte) 6);
 
     private final byte byteValue;
 
@@ -10,6 +10,10 @@ import java.util.Date;
 public class OrderBookMessage {
     private String productId;
     private long sequence;
+    /**
+     * Sequence of the previous message of the same product
+     */
+    private long prevSequence;
     private Date time;
     private MessageType type;
 
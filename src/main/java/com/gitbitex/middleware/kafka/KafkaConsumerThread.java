@@ -1,10 +1,13 @@
 package com.gitbitex.middleware.kafka;
 
 import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.header.Header;
 import org.slf4j.Logger;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -62,6 +65,14 @@ public abstract class KafkaConsumerThread<K, V> extends Thread {
         super.interrupt();
     }
 
+    /**
+     * Returns the last value of the record header as a string, or null if the record does not have it.
+     */
+    protected String header(ConsumerRecord<K, V> record, String key) {
+        Header header = record.headers().lastHeader(key);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    }
+
     protected abstract void doSubscribe();
 
     protected abstract void doPoll();
@@ -0,0 +1,64 @@
+package com.gitbitex.middleware.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Creates the topics whose records are sent to explicit partitions, which an auto-created topic with the broker's
+ * default partition count would not have.
+ */
+@Slf4j
+public class KafkaTopics {
+
+    /**
+     * Creates the topic with the partitions if it does not exist yet, and fails if it exists with fewer.
+     */
+    public static void ensureTopic(String bootstrapServers, String topic, int partitions) {
+        Properties properties = new Properties();
+        properties.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        try (AdminClient adminClient = AdminClient.create(properties)) {
+            Integer existing = partitionCount(adminClient, topic);
+            if (existing == null) {
+                try {
+                    adminClient.createTopics(List.of(new NewTopic(topic, Optional.of(partitions), Optional.empty())))
+                            .all().get();
+                    logger.info("topic created: {} partitions={}", topic, partitions);
+                    return;
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof TopicExistsException)) {
+                        throw new IllegalStateException("create topic failed: " + topic, e.getCause());
+                    }
+                }
+                // another node created it in the meantime
+                existing = partitionCount(adminClient, topic);
+            }
+            if (existing == null || existing < partitions) {
+                throw new IllegalStateException(String.format("topic %s has %s partition(s), %s are configured",
+                        topic, existing, partitions));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while checking topic: " + topic, e);
+        }
+    }
+
+    private static Integer partitionCount(AdminClient adminClient, String topic) throws InterruptedException {
+        try {
+            return adminClient.describeTopics(List.of(topic)).allTopicNames().get().get(topic).partitions().size();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownTopicOrPartitionException) {
+                return null;
+            }
+            throw new IllegalStateException("describe topic failed: " + topic, e.getCause());
+        }
+    }
+}
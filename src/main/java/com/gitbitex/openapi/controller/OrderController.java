@@ -7,11 +7,16 @@ import com.gitbitex.enums.TimeInForce;
 import com.gitbitex.marketdata.entity.OrderEntity;
 import com.gitbitex.marketdata.entity.ProductEntity;
 import com.gitbitex.marketdata.entity.User;
+import com.gitbitex.marketdata.manager.OrderManager;
+import com.gitbitex.marketdata.orderbook.OpenOrderIndex;
 import com.gitbitex.marketdata.repository.OrderRepository;
 import com.gitbitex.marketdata.repository.ProductRepository;
+import com.gitbitex.matchingengine.Order;
+import com.gitbitex.matchingengine.command.CancelAllOrdersCommand;
 import com.gitbitex.matchingengine.command.CancelOrderCommand;
 import com.gitbitex.matchingengine.command.MatchingEngineCommandProducer;
 import com.gitbitex.matchingengine.command.PlaceOrderCommand;
+import com.gitbitex.openapi.model.OrderCursor;
 import com.gitbitex.openapi.model.OrderDto;
 import com.gitbitex.openapi.model.PagedList;
 import com.gitbitex.openapi.model.PlaceOrderRequest;
@@ -25,6 +30,7 @@ import javax.validation.Valid;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -35,6 +41,8 @@ public class OrderController {
     private final OrderRepository orderRepository;
     private final MatchingEngineCommandProducer matchingEngineCommandProducer;
     private final ProductRepository productRepository;
+    private final OpenOrderIndex openOrderIndex;
+    private final OrderManager orderManager;
 
     @PostMapping(value = "/orders")
     public OrderDto placeOrder(@RequestBody @Valid PlaceOrderRequest request,
@@ -105,15 +113,11 @@ public class OrderController {
 
         OrderSide orderSide = side != null ? OrderSide.valueOf(side.toUpperCase()) : null;
 
-        PagedList<OrderEntity> orderPage = orderRepository.findAll(currentUser.getId(), productId, OrderStatus.OPEN,
-                orderSide, 1, 20000);
-
-        for (OrderEntity order : orderPage.getItems()) {
-            CancelOrderCommand command = new CancelOrderCommand();
-            command.setProductId(order.getProductId());
-            command.setOrderId(order.getId());
-            matchingEngineCommandProducer.send(command, null);
-        }
+        CancelAllOrdersCommand command = new CancelAllOrdersCommand();
+        command.setUserId(currentUser.getId());
+        command.setProductId(productId);
+        command.setSide(orderSide);
+        matchingEngineCommandProducer.send(command, null);
     }
 
     @GetMapping("/orders")
@@ -121,18 +125,60 @@ public class OrderController {
                                           @RequestParam(required = false) String status,
                                           @RequestParam(defaultValue = "1") int page,
                                           @RequestParam(defaultValue = "50") int pageSize,
+                                          @RequestParam(required = false) String cursor,
+                                          @RequestParam(defaultValue = "true") boolean count,
                                           @RequestAttribute(required = false) User currentUser) {
         if (currentUser == null) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
         }
 
         OrderStatus orderStatus = status != null ? OrderStatus.valueOf(status.toUpperCase()) : null;
+        OrderCursor orderCursor = OrderCursor.parse(cursor);
+        if (orderStatus == OrderStatus.OPEN && openOrderIndex.isReady()) {
+            return listOpenOrders(currentUser.getId(), productId, page, pageSize, orderCursor);
+        }
 
-        PagedList<OrderEntity> orderPage = orderRepository.findAll(currentUser.getId(), productId, orderStatus, null,
-                page, pageSize);
-        return new PagedList<>(
+        // page numbers are kept for old clients, a cursor (or no page at all) uses keyset pagination
+        PagedList<OrderEntity> orderPage = orderCursor != null || page == 1
+                ? orderRepository.findAll(currentUser.getId(), productId, orderStatus, null, orderCursor, pageSize,
+                count)
+                : orderRepository.findAll(currentUser.getId(), productId, orderStatus, null, page, pageSize);
+        PagedList<OrderDto> orderDtoPage = new PagedList<>(
                 orderPage.getItems().stream().map(this::orderDto).collect(Collectors.toList()),
                 orderPage.getCount());
+        orderDtoPage.setNext(orderPage.getNext());
+        return orderDtoPage;
+    }
+
+    /**
+     * Serves open orders from the resident index, paged with the same (sequence, id) cursor as the order collection.
+     */
+    private PagedList<OrderDto> listOpenOrders(String userId, String productId, int page, int pageSize,
+                                               OrderCursor cursor) {
+        List<Order> orders = openOrderIndex.getOrders(userId, productId, null);
+        int from = Math.max(page - 1, 0) * pageSize;
+        if (cursor != null) {
+            from = 0;
+            while (from < orders.size() && !cursor.isAfter(orders.get(from).getSequence(), orders.get(from).getId())) {
+                from++;
+            }
+        }
+        int to = Math.min(from + pageSize, orders.size());
+
+        PagedList<OrderDto> orderDtoPage = new PagedList<>(from < to
+                ? orders.subList(from, to).stream().map(this::orderDto).collect(Collectors.toList())
+                : List.of(), orders.size());
+        if (to < orders.size()) {
+            Order last = orders.get(to - 1);
+            orderDtoPage.setNext(new OrderCursor(last.getSequence(), last.getId()).toString());
+        }
+        return orderDtoPage;
+    }
+
+    private OrderDto orderDto(Order order) {
+        OrderEntity orderEntity = orderManager.orderEntity(order);
+        orderEntity.setCreatedAt(order.getTime());
+        return orderDto(orderEntity);
     }
 
     private OrderDto orderDto(OrderEntity order) {
@@ -3,21 +3,28 @@ package com.gitbitex.openapi.controller;
 import com.gitbitex.marketdata.entity.Candle;
 import com.gitbitex.marketdata.entity.ProductEntity;
 import com.gitbitex.marketdata.entity.TradeEntity;
+import com.gitbitex.marketdata.manager.TradeManager;
+import com.gitbitex.marketdata.orderbook.L2OrderBook;
+import com.gitbitex.marketdata.orderbook.L3OrderBookHeader;
 import com.gitbitex.marketdata.orderbook.OrderBookSnapshotManager;
 import com.gitbitex.marketdata.repository.CandleRepository;
 import com.gitbitex.marketdata.repository.ProductRepository;
-import com.gitbitex.marketdata.repository.TradeRepository;
 import com.gitbitex.openapi.model.PagedList;
 import com.gitbitex.openapi.model.ProductDto;
 import com.gitbitex.openapi.model.TradeDto;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.BeanUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -26,7 +33,7 @@ import java.util.stream.Collectors;
 public class ProductController {
     private final OrderBookSnapshotManager orderBookSnapshotManager;
     private final ProductRepository productRepository;
-    private final TradeRepository tradeRepository;
+    private final TradeManager tradeManager;
     private final CandleRepository candleRepository;
 
     @GetMapping("/api/products")
@@ -36,8 +43,14 @@ public class ProductController {
     }
 
     @GetMapping("/api/products/{productId}/trades")
-    public List<TradeDto> getProductTrades(@PathVariable String productId) {
-        List<TradeEntity> trades = tradeRepository.findByProductId(productId, 50);
+    public List<TradeDto> getProductTrades(@PathVariable String productId,
+                                           @RequestParam(required = false) Long start,
+                                           @RequestParam(required = false) Long end,
+                                           @RequestParam(defaultValue = "50") int limit) {
+        List<TradeEntity> trades = tradeManager.getTrades(productId,
+                start != null ? new Date(start * 1000) : null,
+                end != null ? new Date(end * 1000) : null,
+                Math.max(1, Math.min(limit, 1000)));
         return trades.stream().map(this::tradeDto).collect(Collectors.toList());
     }
 
@@ -64,16 +77,53 @@ public class ProductController {
         return lines;
     }
 
+    /**
+     * @param depth       number of price levels per side, at most the configured depth of the level2 books
+     * @param aggregation price step of one of the configured aggregated level2 books
+     */
     @GetMapping("/api/products/{productId}/book")
-    public Object getProductBook(@PathVariable String productId, @RequestParam(defaultValue = "2") int level) {
+    public Object getProductBook(@PathVariable String productId, @RequestParam(defaultValue = "2") int level,
+                                 @RequestParam(required = false) Integer depth,
+                                 @RequestParam(required = false) BigDecimal aggregation) {
         return switch (level) {
             case 1 -> orderBookSnapshotManager.getL1OrderBook(productId);
-            case 2 -> orderBookSnapshotManager.getL2BatchOrderBook(productId);
-            case 3 -> orderBookSnapshotManager.getL3OrderBook(productId);
+            case 2 -> limit(orderBookSnapshotManager.getL2BatchOrderBook(productId,
+                    L2OrderBook.aggregation(aggregation)), depth);
             default -> null;
         };
     }
 
+    /**
+     * The level3 book can hold hundreds of thousands of orders, so it is streamed chunk by chunk instead of being
+     * loaded and serialized as a whole.
+     */
+    @GetMapping(value = "/api/products/{productId}/book", params = "level=3")
+    public ResponseEntity<StreamingResponseBody> getProductL3Book(@PathVariable String productId) {
+        // the header read here is the one streamed, a snapshot saved meanwhile does not change the response
+        L3OrderBookHeader header = orderBookSnapshotManager.getL3OrderBookHeader(productId);
+        if (header == null) {
+            return ResponseEntity.ok().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> orderBookSnapshotManager.writeL3OrderBook(header, out));
+    }
+
+    /**
+     * Cached books are shared, so a shallower view is returned as a copy.
+     */
+    private L2OrderBook limit(L2OrderBook l2OrderBook, Integer depth) {
+        if (l2OrderBook == null || depth == null || depth < 0 ||
+                (l2OrderBook.getAsks().size() <= depth && l2OrderBook.getBids().size() <= depth)) {
+            return l2OrderBook;
+        }
+        L2OrderBook limited = new L2OrderBook();
+        BeanUtils.copyProperties(l2OrderBook, limited);
+        limited.setAsks(l2OrderBook.getAsks().subList(0, Math.min(depth, l2OrderBook.getAsks().size())));
+        limited.setBids(l2OrderBook.getBids().subList(0, Math.min(depth, l2OrderBook.getBids().size())));
+        return limited;
+    }
+
     private ProductDto productDto(ProductEntity product) {
         ProductDto productDto = new ProductDto();
         BeanUtils.copyProperties(product, productDto);
@@ -2,7 +2,6 @@ package com.gitbitex.openapi.controller;
 
 import com.gitbitex.marketdata.entity.User;
 import com.gitbitex.marketdata.manager.UserManager;
-import com.gitbitex.marketdata.repository.UserRepository;
 import com.gitbitex.matchingengine.command.DepositCommand;
 import com.gitbitex.matchingengine.command.MatchingEngineCommandProducer;
 import com.gitbitex.openapi.model.*;
@@ -23,7 +22,6 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class UserController {
     private final UserManager userManager;
-    private final UserRepository userRepository;
     private final MatchingEngineCommandProducer matchingEngineCommandProducer;
 
     @GetMapping("/users/self")
@@ -47,7 +45,7 @@ public class UserController {
         if (updateProfileRequest.getTwoStepVerificationType() != null) {
             currentUser.setTwoStepVerificationType(updateProfileRequest.getTwoStepVerificationType());
         }
-        userRepository.save(currentUser);
+        userManager.updateUser(currentUser);
 
         return userDto(currentUser);
     }
@@ -0,0 +1,41 @@
+package com.gitbitex.openapi.model;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Where the next page of an order listing starts: the (sequence, id) of the last order of the current page, written
+ * as {@code sequence:id}. Orders are listed newest first, so the next page holds the orders that sort below it.
+ */
+public record OrderCursor(long sequence, String orderId) {
+
+    /**
+     * Returns null for a null cursor, and fails with 400 Bad Request for one that was not issued by us.
+     */
+    public static OrderCursor parse(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        int separator = cursor.indexOf(':');
+        if (separator <= 0 || separator == cursor.length() - 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid cursor");
+        }
+        try {
+            return new OrderCursor(Long.parseLong(cursor.substring(0, separator)), cursor.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid cursor");
+        }
+    }
+
+    /**
+     * Whether the order belongs to a page after this cursor.
+     */
+    public boolean isAfter(long sequence, String orderId) {
+        return sequence < this.sequence || (sequence == this.sequence && orderId.compareTo(this.orderId) < 0);
+    }
+
+    @Override
+    public String toString() {
+        return sequence + ":" + orderId;
+    }
+}
@@ -10,6 +10,7 @@ import java.util.List;
 public class PagedList<T> {
     private List<T> items;
     private long count;
+    private String next;
 
     public PagedList(List<T> items, long count) {
         this.items = items;
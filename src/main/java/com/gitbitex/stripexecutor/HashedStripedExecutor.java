@@ -0,0 +1,117 @@
+package com.gitbitex.stripexecutor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the tasks of a stripe one after the other, in the order they were submitted. Stripes are hashed onto a fixed
+ * set of workers, each draining its own lock-free queue, so there is no lock and no per-stripe state: submitting a
+ * task is a queue offer plus, if the worker is asleep, an unpark.
+ * <p>
+ * Stripes that hash to the same worker also wait for each other, so tasks should be short and must not block for
+ * long.
+ */
+@Slf4j
+public class HashedStripedExecutor implements Executor {
+    private static final int MAX_TASKS_PER_DRAIN = 256;
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    public HashedStripedExecutor(String name, int numberOfThreads) {
+        this.workers = new Worker[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; i++) {
+            workers[i] = new Worker();
+            Thread thread = new Thread(workers[i], name + "-" + i);
+            thread.setDaemon(true);
+            workers[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Runs the task after every task submitted earlier with an equal stripe key.
+     */
+    public void execute(Object stripeKey, Runnable task) {
+        int hash = stripeKey.hashCode();
+        workerAt(hash ^ (hash >>> 16)).offer(task);
+    }
+
+    /**
+     * Runs a task that does not need to be ordered with any other.
+     */
+    @Override
+    public void execute(Runnable task) {
+        workerAt(nextWorker.getAndIncrement()).offer(task);
+    }
+
+    /**
+     * Stops the workers once their queues are empty. Tasks submitted after this are dropped.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private Worker workerAt(int hash) {
+        return workers[Math.floorMod(hash, workers.length)];
+    }
+
+    private class Worker implements Runnable {
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean sleeping = new AtomicBoolean();
+        private Thread thread;
+
+        private void offer(Runnable task) {
+            if (shutdown) {
+                logger.warn("executor is shut down, task dropped");
+                return;
+            }
+            tasks.offer(task);
+            if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int drained = drain();
+                if (drained > 0) {
+                    continue;
+                }
+                if (shutdown) {
+                    return;
+                }
+
+                sleeping.set(true);
+                // a task offered before the flag was set would not have woken us up
+                if (tasks.isEmpty() && !shutdown) {
+                    LockSupport.park(this);
+                }
+                sleeping.set(false);
+            }
+        }
+
+        private int drain() {
+            int count = 0;
+            Runnable task;
+            while (count < MAX_TASKS_PER_DRAIN && (task = tasks.poll()) != null) {
+                count++;
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    logger.error("task error: {}", e.getMessage(), e);
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.gitbitex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VirtualThreadsTest {
+
+    @Test
+    void isSupportedFromJava21() {
+        int feature = Runtime.version().feature();
+        if (feature >= 21) {
+            assertTrue(VirtualThreads.isSupported());
+        } else if (feature < 19) {
+            // 19 and 20 have the api as a preview
+            assertFalse(VirtualThreads.isSupported());
+        }
+    }
+
+    @Test
+    void runsEveryTaskOnANamedVirtualThread() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+        try {
+            Future<Thread> first = executor.submit(Thread::currentThread);
+            Future<Thread> second = executor.submit(Thread::currentThread);
+            Thread thread = first.get();
+            assertTrue((boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+            assertTrue(thread.getName().startsWith("test-"));
+            assertFalse(thread.getName().equals(second.get().getName()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void failsOnAnOlderRuntime() {
+        assumeFalse(VirtualThreads.isSupported());
+        assertThrows(IllegalStateException.class, VirtualThreads::checkSupported);
+        assertThrows(IllegalStateException.class, () -> VirtualThreads.newThreadPerTaskExecutor("test-"));
+    }
+}
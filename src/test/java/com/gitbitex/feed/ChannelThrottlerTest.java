@@ -0,0 +1,79 @@
+package com.gitbitex.feed;
+
+import com.gitbitex.marketdata.orderbook.L2OrderBookChange;
+import com.gitbitex.marketdata.orderbook.L2OrderBookUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ChannelThrottlerTest {
+    // long enough that all offers land in the first interval
+    private static final int INTERVAL_MS = 1000;
+
+    @Test
+    void mergesLevel2UpdatesAndKeepsTheLatestOtherMessage() throws Exception {
+        LinkedBlockingQueue<Object[]> delivered = new LinkedBlockingQueue<>();
+        ChannelThrottler throttler = new ChannelThrottler((channel, message) -> delivered.add(new Object[]{channel,
+                message}), channel -> !channel.startsWith("ETH-USDT"));
+        throttler.register("BTC-USDT.level2", INTERVAL_MS);
+        throttler.register("BTC-USDT.ticker", INTERVAL_MS);
+        // nobody is subscribed anymore
+        throttler.register("ETH-USDT.ticker", INTERVAL_MS);
+
+        throttler.offer("BTC-USDT.level2", update(10, 11, new L2OrderBookChange("buy", "100", "1"),
+                new L2OrderBookChange("sell", "101", "2")));
+        throttler.offer("BTC-USDT.level2", update(11, 12, new L2OrderBookChange("buy", "100", "3")));
+        throttler.offer("BTC-USDT.level2", update(12, 13, new L2OrderBookChange("buy", "99", "4"),
+                new L2OrderBookChange("sell", "100", "5")));
+        throttler.offer("BTC-USDT.ticker", "t1");
+        throttler.offer("BTC-USDT.ticker", "t2");
+        throttler.offer("ETH-USDT.ticker", "t3");
+        // not throttled
+        throttler.offer("BTC-USDT.match", "m1");
+
+        Map<String, Object> messages = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            Object[] message = delivered.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message);
+            messages.put((String) message[0], message[1]);
+        }
+        assertEquals("t2", messages.get(ChannelThrottler.throttledChannel("BTC-USDT.ticker", INTERVAL_MS)));
+
+        L2OrderBookUpdate merged = (L2OrderBookUpdate) messages.get(
+                ChannelThrottler.throttledChannel("BTC-USDT.level2", INTERVAL_MS));
+        assertEquals("BTC-USDT", merged.getProductId());
+        assertEquals(10, merged.getPrevSequence());
+        assertEquals(13, merged.getSequence());
+        // the latest size of every level, in the order the levels first changed
+        assertEquals(List.of(new L2OrderBookChange("buy", "100", "3"), new L2OrderBookChange("sell", "101", "2"),
+                new L2OrderBookChange("buy", "99", "4"), new L2OrderBookChange("sell", "100", "5")),
+                merged.getChanges());
+
+        // nothing new was offered, and the unsubscribed channel was never delivered
+        assertNull(delivered.poll(INTERVAL_MS * 3 / 2, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void normalizesIntervals() {
+        assertEquals(ChannelThrottler.MIN_INTERVAL_MS, ChannelThrottler.normalizeInterval(1));
+        assertEquals(ChannelThrottler.MAX_INTERVAL_MS, ChannelThrottler.normalizeInterval(Integer.MAX_VALUE));
+        assertEquals(300, ChannelThrottler.normalizeInterval(260));
+    }
+
+    private static L2OrderBookUpdate update(long prevSequence, long sequence, L2OrderBookChange... changes) {
+        L2OrderBookUpdate update = new L2OrderBookUpdate();
+        update.setProductId("BTC-USDT");
+        update.setPrevSequence(prevSequence);
+        update.setSequence(sequence);
+        update.setChanges(List.of(changes));
+        return update;
+    }
+}
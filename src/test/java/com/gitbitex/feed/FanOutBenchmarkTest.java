@@ -0,0 +1,163 @@
+package com.gitbitex.feed;
+
+import com.alibaba.fastjson.JSON;
+import com.gitbitex.AppProperties;
+import com.gitbitex.feed.message.OrderMatchFeedMessage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures the cost of fanning a match message out to a growing number of subscribers, encoding it once per
+ * broadcast against once per subscriber as before. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class FanOutBenchmarkTest {
+    private static final String PRODUCT_ID = "BTC-USDT";
+    private static final int[] SUBSCRIBERS = {10, 100, 1000, 5000};
+    private static final int MESSAGES = 100;
+
+    @Test
+    void encoding() {
+        OrderMatchFeedMessage message = matchMessage(0);
+        for (int subscribers : SUBSCRIBERS) {
+            // warm up both paths before measuring
+            encodeShared(message, subscribers);
+            encodePerSubscriber(message, subscribers);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                encodeShared(message, subscribers);
+            }
+            long shared = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                encodePerSubscriber(message, subscribers);
+            }
+            long perSubscriber = System.nanoTime() - start;
+            System.out.printf("encoding: subscribers=%s shared=%.1fus/message perSubscriber=%.1fus/message "
+                            + "speedup=%.1fx%n", subscribers, shared / 1e3 / MESSAGES, perSubscriber / 1e3 / MESSAGES,
+                    (double) perSubscriber / shared);
+        }
+    }
+
+    @Test
+    void broadcast() throws Exception {
+        for (int subscribers : SUBSCRIBERS) {
+            SessionManager sessionManager = sessionManager();
+            AtomicLong written = new AtomicLong();
+            for (int i = 0; i < subscribers; i++) {
+                WebSocketSession session = session("s" + i, written);
+                sessionManager.openSession(session);
+                sessionManager.subOrUnSub(session, List.of(PRODUCT_ID), null, List.of("match"), null, null, true);
+            }
+
+            // the first round warms up the send path
+            broadcast(sessionManager, written, subscribers);
+            long elapsed = broadcast(sessionManager, written, subscribers);
+            System.out.printf("broadcast: subscribers=%s messages=%s elapsed=%sms perMessage=%.1fus "
+                            + "perFrame=%.0fns%n", subscribers, MESSAGES, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                    elapsed / 1e3 / MESSAGES, (double) elapsed / subscribers / MESSAGES);
+        }
+    }
+
+    /**
+     * Broadcasts the messages and returns how long it took until every subscriber was sent all of them.
+     */
+    private static long broadcast(SessionManager sessionManager, AtomicLong written, int subscribers)
+            throws InterruptedException {
+        long expected = written.get() + (long) subscribers * MESSAGES;
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            sessionManager.broadcast(PRODUCT_ID + ".match", matchMessage(i));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (written.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(expected, written.get());
+        return elapsed;
+    }
+
+    private static void encodeShared(Object message, int subscribers) {
+        TextMessage frame = new TextMessage(JSON.toJSONString(message));
+        TextMessage[] frames = new TextMessage[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            frames[i] = frame;
+        }
+        assertTrue(frames[subscribers - 1].getPayloadLength() > 0);
+    }
+
+    private static void encodePerSubscriber(Object message, int subscribers) {
+        TextMessage[] frames = new TextMessage[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            frames[i] = new TextMessage(JSON.toJSONString(message));
+        }
+        assertTrue(frames[subscribers - 1].getPayloadLength() > 0);
+    }
+
+    private static SessionManager sessionManager() {
+        FeedProperties feedProperties = new FeedProperties();
+        feedProperties.setSessionQueueSize(MESSAGES);
+        SessionManager sessionManager = new SessionManager(mock(OrderBookLogBuffer.class),
+                mock(FeedSnapshotCache.class), feedProperties, mock(FeedSessionMetrics.class), new AppProperties());
+        sessionManager.init();
+        return sessionManager;
+    }
+
+    /**
+     * A session that takes every frame at once, so that only the feed's own work is measured.
+     */
+    private static WebSocketSession session(String id, AtomicLong written) {
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        return (WebSocketSession) Proxy.newProxyInstance(WebSocketSession.class.getClassLoader(),
+                new Class<?>[]{WebSocketSession.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                        case "toString":
+                            return id;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "isOpen":
+                            return true;
+                        case "getAttributes":
+                            return attributes;
+                        case "sendMessage":
+                            written.incrementAndGet();
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static OrderMatchFeedMessage matchMessage(long sequence) {
+        OrderMatchFeedMessage message = new OrderMatchFeedMessage();
+        message.setProductId(PRODUCT_ID);
+        message.setTradeId(sequence);
+        message.setSequence(sequence);
+        message.setPrevSequence(sequence - 1);
+        message.setTakerOrderId("c5a5c46f-3d6e-4a3b-8b0e-7b1f1b6f0a01");
+        message.setMakerOrderId("0e2d1f5a-6a4b-4c0c-9a55-2f8f4a1b3c02");
+        message.setTime("2024-01-01T00:00:00.000Z");
+        message.setSize("0.01250000");
+        message.setPrice("43125.50");
+        message.setSide("buy");
+        return message;
+    }
+}
@@ -0,0 +1,126 @@
+package com.gitbitex.feed;
+
+import com.gitbitex.AppProperties;
+import com.gitbitex.matchingengine.MessageSender;
+import com.gitbitex.matchingengine.Order;
+import com.gitbitex.matchingengine.message.MessageSerializer;
+import com.gitbitex.matchingengine.message.MessageType;
+import com.gitbitex.matchingengine.message.OrderMessage;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FeedEngineMessageThreadTest {
+    private static final String TOPIC = "feed";
+    private static final int PARTITIONS = 4;
+    private KafkaConsumer<String, byte[]> consumer;
+    private SessionManager sessionManager;
+    private FeedMessageListener feedMessageListener;
+    private FeedEngineMessageThread thread;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        consumer = mock(KafkaConsumer.class);
+        sessionManager = mock(SessionManager.class);
+        feedMessageListener = mock(FeedMessageListener.class);
+        AppProperties appProperties = new AppProperties();
+        appProperties.setMatchingEngineFeedMessageTopic(TOPIC);
+        appProperties.setFeedMessagePartitions(PARTITIONS);
+        thread = new FeedEngineMessageThread(consumer, feedMessageListener, sessionManager, appProperties);
+    }
+
+    @Test
+    void readsOnlyThePartitionsOfLocalUsersAndProducts() {
+        String user = "u1";
+        String product = IntStream.range(0, 100).mapToObj(i -> "P" + i)
+                .filter(x -> !partition(x).equals(partition(user)))
+                .findFirst().orElseThrow();
+        when(sessionManager.getFeedInterestVersion()).thenReturn(1L);
+        when(sessionManager.getFeedKeys()).thenReturn(Set.of(user));
+        thread.doSubscribe();
+        verify(consumer).assign(Set.of(partition(user)));
+        verify(consumer).seekToEnd(Set.of(partition(user)));
+
+        // a new product is started at its end, the partition read so far keeps its position
+        when(sessionManager.getFeedInterestVersion()).thenReturn(2L);
+        when(sessionManager.getFeedKeys()).thenReturn(Set.of(user, product));
+        when(consumer.poll(any(Duration.class))).thenReturn(ConsumerRecords.empty());
+        thread.doPoll();
+        verify(consumer).assign(Set.of(partition(user), partition(product)));
+        verify(consumer).seekToEnd(Set.of(partition(product)));
+
+        // the user left
+        when(sessionManager.getFeedInterestVersion()).thenReturn(3L);
+        when(sessionManager.getFeedKeys()).thenReturn(Set.of(product));
+        thread.doPoll();
+        verify(consumer).assign(Set.of(partition(product)));
+        verify(consumer, times(2)).seekToEnd(anyCollection());
+    }
+
+    @Test
+    void decodesOnlyTheMessagesOfSubscribedUsers() {
+        when(sessionManager.getFeedInterestVersion()).thenReturn(1L);
+        when(sessionManager.getFeedKeys()).thenReturn(Set.of("u1"));
+        when(sessionManager.isUserSubscribed("u1")).thenReturn(true);
+        thread.doSubscribe();
+
+        TopicPartition partition = partition("u1");
+        ConsumerRecord<String, byte[]> subscribed = new ConsumerRecord<>(TOPIC, partition.partition(), 0, "u1",
+                new MessageSerializer().serialize(TOPIC, orderMessage("u1")));
+        subscribed.headers().add(MessageSender.USER_ID_HEADER, "u1".getBytes(StandardCharsets.UTF_8));
+        // shares the partition but nobody local asked for it, not valid json after the type byte
+        ConsumerRecord<String, byte[]> other = new ConsumerRecord<>(TOPIC, partition.partition(), 1, "u2",
+                new byte[]{MessageType.ORDER.getByteValue(), '?'});
+        other.headers().add(MessageSender.USER_ID_HEADER, "u2".getBytes(StandardCharsets.UTF_8));
+        when(consumer.poll(any(Duration.class)))
+                .thenReturn(new ConsumerRecords<>(Map.of(partition, List.of(subscribed, other))));
+
+        thread.doPoll();
+
+        ArgumentCaptor<OrderMessage> delivered = ArgumentCaptor.forClass(OrderMessage.class);
+        verify(feedMessageListener).onOrderMessage(delivered.capture());
+        assertEquals("u1", delivered.getValue().getOrder().getUserId());
+        verifyNoMoreInteractions(feedMessageListener);
+    }
+
+    @Test
+    void doesNotPollWithoutPartitions() {
+        when(sessionManager.getFeedInterestVersion()).thenReturn(0L);
+        when(sessionManager.getFeedKeys()).thenReturn(Set.of());
+        thread.doSubscribe();
+        thread.doPoll();
+        verify(consumer, never()).assign(any());
+        verify(consumer, never()).poll(any(Duration.class));
+    }
+
+    private static TopicPartition partition(String key) {
+        return new TopicPartition(TOPIC, FeedMessageRelayThread.feedPartition(key, PARTITIONS));
+    }
+
+    private static OrderMessage orderMessage(String userId) {
+        Order order = new Order();
+        order.setId("o1");
+        order.setUserId(userId);
+        order.setProductId("BTC-USDT");
+        OrderMessage message = new OrderMessage();
+        message.setSequence(1);
+        message.setOrder(order);
+        return message;
+    }
+}
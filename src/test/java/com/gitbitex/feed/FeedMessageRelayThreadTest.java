@@ -0,0 +1,106 @@
+package com.gitbitex.feed;
+
+import com.gitbitex.AppProperties;
+import com.gitbitex.matchingengine.MessageSender;
+import com.gitbitex.matchingengine.message.MessageType;
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FeedMessageRelayThreadTest {
+    private static final String ENGINE_TOPIC = "engine";
+    private static final String FEED_TOPIC = "feed";
+    private static final int PARTITIONS = 4;
+    private static final TopicPartition ENGINE_PARTITION = new TopicPartition(ENGINE_TOPIC, 0);
+    private KafkaConsumer<String, byte[]> consumer;
+    private MockProducer<String, byte[]> producer;
+    private FeedMessageRelayThread thread;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        consumer = mock(KafkaConsumer.class);
+        when(consumer.groupMetadata()).thenReturn(new ConsumerGroupMetadata("FeedMessageRelay"));
+        when(consumer.assignment()).thenReturn(Set.of(ENGINE_PARTITION));
+        producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        AppProperties appProperties = new AppProperties();
+        appProperties.setMatchingEngineMessageTopic(ENGINE_TOPIC);
+        appProperties.setMatchingEngineFeedMessageTopic(FEED_TOPIC);
+        appProperties.setFeedMessagePartitions(PARTITIONS);
+        thread = new FeedMessageRelayThread(consumer, producer, appProperties);
+        thread.doSubscribe();
+    }
+
+    @Test
+    void copiesUserAndProductMessagesWithTheConsumedOffsetsInOneTransaction() {
+        ConsumerRecord<String, byte[]> order = record(10, MessageType.ORDER, MessageSender.USER_ID_HEADER, "u1");
+        ConsumerRecord<String, byte[]> trade = record(11, MessageType.TRADE, MessageSender.PRODUCT_ID_HEADER,
+                "BTC-USDT");
+        ConsumerRecord<String, byte[]> other = record(12, MessageType.COMMAND_END, null, null);
+        when(consumer.poll(any(Duration.class)))
+                .thenReturn(new ConsumerRecords<>(Map.of(ENGINE_PARTITION, List.of(order, trade, other))));
+
+        thread.doPoll();
+
+        assertTrue(producer.transactionCommitted());
+        List<ProducerRecord<String, byte[]>> sent = producer.history();
+        assertEquals(2, sent.size());
+        assertEquals(FEED_TOPIC, sent.get(0).topic());
+        assertEquals("u1", sent.get(0).key());
+        assertEquals(FeedMessageRelayThread.feedPartition("u1", PARTITIONS), sent.get(0).partition());
+        assertArrayEquals(order.value(), sent.get(0).value());
+        assertArrayEquals("u1".getBytes(StandardCharsets.UTF_8),
+                sent.get(0).headers().lastHeader(MessageSender.USER_ID_HEADER).value());
+        assertEquals("BTC-USDT", sent.get(1).key());
+        assertEquals(FeedMessageRelayThread.feedPartition("BTC-USDT", PARTITIONS), sent.get(1).partition());
+        assertEquals(Map.of("FeedMessageRelay", Map.of(ENGINE_PARTITION, new OffsetAndMetadata(13))),
+                producer.consumerGroupOffsetsHistory().get(0));
+    }
+
+    @Test
+    void readsTheBatchAgainWhenTheTransactionFails() {
+        ConsumerRecord<String, byte[]> order = record(10, MessageType.ORDER, MessageSender.USER_ID_HEADER, "u1");
+        ConsumerRecord<String, byte[]> account = record(11, MessageType.ACCOUNT, MessageSender.USER_ID_HEADER, "u2");
+        when(consumer.poll(any(Duration.class)))
+                .thenReturn(new ConsumerRecords<>(Map.of(ENGINE_PARTITION, List.of(order, account))));
+        producer.commitTransactionException = new KafkaException("coordinator moved");
+
+        thread.doPoll();
+
+        assertTrue(producer.transactionAborted());
+        assertTrue(producer.history().isEmpty());
+        verify(consumer).seek(ENGINE_PARTITION, 10);
+    }
+
+    private static ConsumerRecord<String, byte[]> record(long offset, MessageType messageType, String header,
+                                                         String key) {
+        byte[] value = {messageType.getByteValue(), '{', '}'};
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(ENGINE_TOPIC, 0, offset, null, value);
+        if (header != null) {
+            record.headers().add(header, key.getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+}
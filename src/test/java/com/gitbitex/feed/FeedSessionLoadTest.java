@@ -0,0 +1,137 @@
+package com.gitbitex.feed;
+
+import com.gitbitex.VirtualThreads;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares the send loops on the platform sender pool with one virtual thread per loop, for clients whose blocking
+ * writes take a while. Run with {@code mvn test -Pbenchmark}; the virtual thread run needs Java 21.
+ */
+@Tag("benchmark")
+class FeedSessionLoadTest {
+    private static final int SESSIONS = 500;
+    private static final int FRAMES_PER_SESSION = 20;
+    private static final long WRITE_MS = 2;
+
+    private final ScheduledExecutorService timer =
+            Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+
+    @AfterEach
+    void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    void platformSenderPool() throws Exception {
+        Result result = run(timer);
+        result.print("platform");
+    }
+
+    @Test
+    void virtualThreadSender() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("feed-sender-");
+        try {
+            Result result = run(executor);
+            result.print("virtual");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Result run(Executor senderExecutor) throws Exception {
+        int frames = SESSIONS * FRAMES_PER_SESSION;
+        long[] latencies = new long[frames];
+        AtomicInteger written = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(frames);
+        List<FeedSession> sessions = new ArrayList<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions.add(new FeedSession(blockingSession("s" + i, latencies, written, done),
+                    mock(FeedSessionMetrics.class), senderExecutor, timer, FRAMES_PER_SESSION,
+                    SlowConsumerPolicy.DISCONNECT, 5000));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES_PER_SESSION; i++) {
+            for (FeedSession session : sessions) {
+                session.send(new TextMessage(Long.toString(System.nanoTime())), null, false);
+            }
+        }
+        assertTrue(done.await(5, TimeUnit.MINUTES), "frames not written: " + done.getCount());
+        long elapsedNanos = System.nanoTime() - start;
+        assertEquals(frames, written.get());
+        return new Result(latencies, elapsedNanos);
+    }
+
+    /**
+     * A session whose writes block like a client on a slow link, recording how long every frame waited.
+     */
+    private static WebSocketSession blockingSession(String id, long[] latencies, AtomicInteger written,
+                                                    CountDownLatch done) {
+        return (WebSocketSession) Proxy.newProxyInstance(WebSocketSession.class.getClassLoader(),
+                new Class<?>[]{WebSocketSession.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                        case "toString":
+                            return id;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "isOpen":
+                            return true;
+                        case "sendMessage":
+                            Thread.sleep(WRITE_MS);
+                            long queuedAt = Long.parseLong(((TextMessage) args[0]).getPayload());
+                            latencies[written.getAndIncrement()] = System.nanoTime() - queuedAt;
+                            done.countDown();
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static class Result {
+        private final long[] latencies;
+        private final long elapsedNanos;
+
+        Result(long[] latencies, long elapsedNanos) {
+            this.latencies = latencies;
+            this.elapsedNanos = elapsedNanos;
+            Arrays.sort(latencies);
+        }
+
+        void print(String name) {
+            System.out.printf("%s: sessions=%s frames=%s write=%sms elapsed=%sms frames/s=%.0f p50=%.1fms "
+                            + "p99=%.1fms max=%.1fms%n", name, SESSIONS, latencies.length, WRITE_MS,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), latencies.length * 1e9 / elapsedNanos,
+                    percentile(0.50), percentile(0.99), latencies[latencies.length - 1] / 1e6);
+        }
+
+        private double percentile(double p) {
+            return latencies[(int) Math.min(latencies.length - 1, latencies.length * p)] / 1e6;
+        }
+    }
+}
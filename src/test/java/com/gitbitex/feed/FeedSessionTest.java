@@ -0,0 +1,159 @@
+package com.gitbitex.feed;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class FeedSessionTest {
+    private final List<Runnable> senderTasks = new ArrayList<>();
+    private WebSocketSession webSocketSession;
+    private ScheduledExecutorService timer;
+
+    @BeforeEach
+    void setUp() {
+        webSocketSession = mock(WebSocketSession.class);
+        when(webSocketSession.getId()).thenReturn("s1");
+        when(webSocketSession.isOpen()).thenReturn(true);
+        timer = mock(ScheduledExecutorService.class);
+    }
+
+    @Test
+    void conflatesFramesWithTheSameKey() throws Exception {
+        FeedSession session = session(SlowConsumerPolicy.CONFLATE, 10);
+        assertTrue(session.send(frame("t1"), "ticker", true));
+        assertTrue(session.send(frame("t2"), "ticker", true));
+        assertTrue(session.send(frame("o1"), null, false));
+
+        runSenderTasks();
+        ArgumentCaptor<TextMessage> sent = ArgumentCaptor.forClass(TextMessage.class);
+        verify(webSocketSession, times(2)).sendMessage(sent.capture());
+        assertEquals(List.of("t2", "o1"), sent.getAllValues().stream().map(TextMessage::getPayload).toList());
+    }
+
+    @Test
+    void dropsResyncableFramesWhenFull() throws Exception {
+        FeedSession session = session(SlowConsumerPolicy.DROP_AND_RESYNC, 2);
+        assertTrue(session.send(frame("u1"), null, true));
+        assertTrue(session.send(frame("u2"), null, true));
+        assertFalse(session.send(frame("u3"), null, true));
+
+        // the session keeps going after the resync
+        assertTrue(session.send(frame("s1"), null, true));
+        runSenderTasks();
+        verify(webSocketSession).sendMessage(argThat(x -> x.getPayload().equals("s1")));
+        verify(webSocketSession, never()).close(any());
+    }
+
+    @Test
+    void closesInsteadOfDroppingQueuedPrivateFrames() throws Exception {
+        FeedSession session = session(SlowConsumerPolicy.CONFLATE, 2);
+        assertTrue(session.send(frame("order"), null, false));
+        assertTrue(session.send(frame("u1"), null, true));
+
+        assertTrue(session.send(frame("u2"), null, true));
+        verify(webSocketSession).close(CloseStatus.SESSION_NOT_RELIABLE);
+        runSenderTasks();
+        verify(webSocketSession, never()).sendMessage(any());
+    }
+
+    @Test
+    void closesInsteadOfDroppingAnIncomingPrivateFrame() throws Exception {
+        FeedSession session = session(SlowConsumerPolicy.DROP_AND_RESYNC, 1);
+        assertTrue(session.send(frame("u1"), null, true));
+
+        assertTrue(session.send(frame("funds"), null, false));
+        verify(webSocketSession).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    @Test
+    void disconnectsWhenFull() throws Exception {
+        FeedSession session = session(SlowConsumerPolicy.DISCONNECT, 1);
+        assertTrue(session.send(frame("u1"), null, true));
+
+        assertTrue(session.send(frame("u2"), null, true));
+        verify(webSocketSession).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    @Test
+    void closesASessionWhoseTransportStaysBusy() throws Exception {
+        webSocketSession = mock(WebSocketSession.class, withSettings().extraInterfaces(NonBlockingSession.class));
+        when(webSocketSession.getId()).thenReturn("s1");
+        when(webSocketSession.isOpen()).thenReturn(true);
+        NonBlockingSession transport = (NonBlockingSession) webSocketSession;
+        when(transport.isWritable()).thenReturn(false);
+        FeedSession session = new FeedSession(webSocketSession, mock(FeedSessionMetrics.class), senderTasks::add,
+                timer, 10, SlowConsumerPolicy.CONFLATE, 0);
+
+        session.send(frame("u1"), null, true);
+        runSenderTasks();
+        ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).schedule(retry.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        verify(webSocketSession, never()).close(any());
+
+        Thread.sleep(2);
+        retry.getValue().run();
+        runSenderTasks();
+        verify(webSocketSession).close(CloseStatus.SESSION_NOT_RELIABLE);
+        verify(transport, never()).sendMessages(any());
+    }
+
+    @Test
+    void resumesWhenTheTransportIsWritableAgain() throws Exception {
+        webSocketSession = mock(WebSocketSession.class, withSettings().extraInterfaces(NonBlockingSession.class));
+        when(webSocketSession.getId()).thenReturn("s1");
+        when(webSocketSession.isOpen()).thenReturn(true);
+        NonBlockingSession transport = (NonBlockingSession) webSocketSession;
+        when(transport.isWritable()).thenReturn(true, false);
+        FeedSession session = session(SlowConsumerPolicy.CONFLATE, 10);
+
+        session.send(frame("u1"), null, true);
+        runSenderTasks();
+        session.send(frame("u2"), null, true);
+        runSenderTasks();
+        verify(transport).sendMessages(List.of(frame("u1")));
+        ArgumentCaptor<Runnable> writable = ArgumentCaptor.forClass(Runnable.class);
+        verify(transport).onWritable(writable.capture());
+
+        // the transport's callback, not a timer, starts the next send loop
+        when(transport.isWritable()).thenReturn(true);
+        writable.getValue().run();
+        runSenderTasks();
+        verify(transport).sendMessages(List.of(frame("u2")));
+        // the only timer run is the stall check, which finds the session no longer waiting
+        ArgumentCaptor<Runnable> stallCheck = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).schedule(stallCheck.capture(), eq(5000L), eq(TimeUnit.MILLISECONDS));
+        stallCheck.getValue().run();
+        verify(webSocketSession, never()).close(any());
+    }
+
+    private FeedSession session(SlowConsumerPolicy policy, int queueSize) {
+        return new FeedSession(webSocketSession, mock(FeedSessionMetrics.class), senderTasks::add, timer, queueSize,
+                policy, 5000);
+    }
+
+    private void runSenderTasks() {
+        while (!senderTasks.isEmpty()) {
+            senderTasks.remove(0).run();
+        }
+    }
+
+    private static TextMessage frame(String payload) {
+        return new TextMessage(payload);
+    }
+}
@@ -0,0 +1,67 @@
+package com.gitbitex.feed;
+
+import com.gitbitex.marketdata.manager.TickerManager;
+import com.gitbitex.marketdata.orderbook.L2OrderBook;
+import com.gitbitex.marketdata.orderbook.OrderBookSnapshotManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FeedSnapshotCacheTest {
+    private OrderBookSnapshotManager orderBookSnapshotManager;
+    private FeedSnapshotCache cache;
+
+    @BeforeEach
+    void setUp() {
+        orderBookSnapshotManager = mock(OrderBookSnapshotManager.class);
+        cache = new FeedSnapshotCache(orderBookSnapshotManager, mock(TickerManager.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    void readsTheBookOnceWithoutBlockingTheCallers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(orderBookSnapshotManager.getL2BatchOrderBook("BTC-USDT", null)).thenAnswer(invocation -> {
+            release.await();
+            L2OrderBook book = new L2OrderBook();
+            book.setProductId("BTC-USDT");
+            book.setSequence(7);
+            return book;
+        });
+
+        // neither call waits for the read in progress
+        CompletableFuture<FeedSnapshotCache.L2Snapshot> first = cache.getL2Snapshot("BTC-USDT", null);
+        CompletableFuture<FeedSnapshotCache.L2Snapshot> second = cache.getL2Snapshot("BTC-USDT", null);
+        assertFalse(first.isDone());
+        assertSame(first, second);
+
+        release.countDown();
+        assertEquals(7, first.get(5, TimeUnit.SECONDS).sequence());
+        // served from memory from now on
+        CompletableFuture<FeedSnapshotCache.L2Snapshot> cached = cache.getL2Snapshot("BTC-USDT", null);
+        assertTrue(cached.isDone());
+        assertSame(first.get(), cached.get());
+        verify(orderBookSnapshotManager, times(1)).getL2BatchOrderBook("BTC-USDT", null);
+    }
+
+    @Test
+    void readsAgainAfterAFailedRead() throws Exception {
+        when(orderBookSnapshotManager.getL2BatchOrderBook("BTC-USDT", null))
+                .thenThrow(new IllegalStateException("redis down"))
+                .thenReturn(new L2OrderBook());
+
+        assertNull(cache.getL2Snapshot("BTC-USDT", null).get(5, TimeUnit.SECONDS));
+        assertNotNull(cache.getL2Snapshot("BTC-USDT", null).get(5, TimeUnit.SECONDS));
+    }
+}
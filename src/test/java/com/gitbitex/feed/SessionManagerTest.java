@@ -0,0 +1,119 @@
+package com.gitbitex.feed;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.gitbitex.AppProperties;
+import com.gitbitex.marketdata.orderbook.L2OrderBookChange;
+import com.gitbitex.marketdata.orderbook.L2OrderBookUpdate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.*;
+
+class SessionManagerTest {
+    private static final String PRODUCT_ID = "BTC-USDT";
+    // long enough that all offers land in the first interval
+    private static final int INTERVAL_MS = 1000;
+    private FeedSnapshotCache feedSnapshotCache;
+    private SessionManager sessionManager;
+
+    @BeforeEach
+    void setUp() {
+        feedSnapshotCache = mock(FeedSnapshotCache.class);
+        sessionManager = new SessionManager(mock(OrderBookLogBuffer.class), feedSnapshotCache, new FeedProperties(),
+                mock(FeedSessionMetrics.class), new AppProperties());
+        sessionManager.init();
+    }
+
+    @Test
+    void mergedUpdateReachesASessionResyncedBetweenFlushes() throws Exception {
+        snapshotAt(10);
+        BlockingQueue<JSONObject> first = new LinkedBlockingQueue<>();
+        subscribe("s1", first);
+        assertEquals("snapshot", next(first).getString("type"));
+        sessionManager.broadcast(PRODUCT_ID + ".level2", update(10, 11, "100", "1"));
+
+        // the snapshot advanced before the next flush, a new session starts from it
+        snapshotAt(11);
+        BlockingQueue<JSONObject> second = new LinkedBlockingQueue<>();
+        subscribe("s2", second);
+        assertEquals(11, next(second).getLongValue("sequence"));
+        sessionManager.broadcast(PRODUCT_ID + ".level2", update(11, 12, "101", "2"));
+
+        // both get the merged update (10, 12], without a resync
+        for (BlockingQueue<JSONObject> frames : List.of(first, second)) {
+            JSONObject update = next(frames);
+            assertEquals("l2update", update.getString("type"));
+            assertEquals(12, update.getLongValue("sequence"));
+            assertEquals(2, update.getJSONArray("changes").size());
+        }
+        verify(feedSnapshotCache, times(2)).getL2Snapshot(PRODUCT_ID, null);
+        assertNull(second.poll(INTERVAL_MS * 3 / 2, TimeUnit.MILLISECONDS));
+    }
+
+    private void snapshotAt(long sequence) {
+        TextMessage frame = new TextMessage("{\"type\":\"snapshot\",\"sequence\":" + sequence + "}");
+        when(feedSnapshotCache.getL2Snapshot(PRODUCT_ID, null))
+                .thenReturn(CompletableFuture.completedFuture(new FeedSnapshotCache.L2Snapshot(sequence, frame)));
+    }
+
+    private void subscribe(String id, BlockingQueue<JSONObject> frames) {
+        WebSocketSession session = session(id, frames);
+        sessionManager.openSession(session);
+        sessionManager.subOrUnSub(session, List.of(PRODUCT_ID), null, List.of("level2"), null, INTERVAL_MS, true);
+    }
+
+    private static JSONObject next(BlockingQueue<JSONObject> frames) throws InterruptedException {
+        JSONObject frame = frames.poll(5, TimeUnit.SECONDS);
+        assertNotNull(frame);
+        return frame;
+    }
+
+    private static L2OrderBookUpdate update(long prevSequence, long sequence, String price, String size) {
+        L2OrderBookUpdate update = new L2OrderBookUpdate();
+        update.setProductId(PRODUCT_ID);
+        update.setPrevSequence(prevSequence);
+        update.setSequence(sequence);
+        update.setChanges(List.of(new L2OrderBookChange("buy", price, size)));
+        return update;
+    }
+
+    private static WebSocketSession session(String id, BlockingQueue<JSONObject> frames) {
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        return (WebSocketSession) Proxy.newProxyInstance(WebSocketSession.class.getClassLoader(),
+                new Class<?>[]{WebSocketSession.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                        case "toString":
+                            return id;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "isOpen":
+                            return true;
+                        case "getAttributes":
+                            return attributes;
+                        case "sendMessage":
+                            frames.add(JSON.parseObject(((TextMessage) args[0]).getPayload()));
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
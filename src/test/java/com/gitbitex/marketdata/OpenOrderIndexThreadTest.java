@@ -0,0 +1,39 @@
+package com.gitbitex.marketdata;
+
+import com.gitbitex.AppProperties;
+import com.gitbitex.marketdata.orderbook.OpenOrderIndex;
+import com.gitbitex.matchingengine.message.Message;
+import com.gitbitex.matchingengine.snapshot.EngineSnapshotManager;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class OpenOrderIndexThreadTest {
+    private static final String TOPIC = "engine";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void refusesATopicWithMoreThanOnePartition() {
+        KafkaConsumer<String, Message> consumer = mock(KafkaConsumer.class);
+        when(consumer.partitionsFor(TOPIC)).thenReturn(List.of(partition(0), partition(1)));
+        OpenOrderIndex openOrderIndex = mock(OpenOrderIndex.class);
+        AppProperties appProperties = new AppProperties();
+        appProperties.setMatchingEngineMessageTopic(TOPIC);
+        OpenOrderIndexThread thread = new OpenOrderIndexThread(consumer, openOrderIndex,
+                mock(EngineSnapshotManager.class), appProperties);
+
+        assertThrows(IllegalStateException.class, thread::doSubscribe);
+        verify(consumer, never()).assign(any());
+        verify(openOrderIndex, never()).setReady(true);
+    }
+
+    private static PartitionInfo partition(int partition) {
+        return new PartitionInfo(TOPIC, partition, null, null, null);
+    }
+}
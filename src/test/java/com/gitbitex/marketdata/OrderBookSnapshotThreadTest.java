@@ -0,0 +1,163 @@
+package com.gitbitex.marketdata;
+
+import com.gitbitex.AppProperties;
+import com.gitbitex.enums.OrderSide;
+import com.gitbitex.enums.OrderStatus;
+import com.gitbitex.marketdata.orderbook.L2OrderBook;
+import com.gitbitex.marketdata.orderbook.OrderBookSnapshotPublisher;
+import com.gitbitex.matchingengine.MessageSender;
+import com.gitbitex.matchingengine.Order;
+import com.gitbitex.matchingengine.message.Message;
+import com.gitbitex.matchingengine.message.MessageSerializer;
+import com.gitbitex.matchingengine.message.MessageType;
+import com.gitbitex.matchingengine.message.OrderMessage;
+import com.gitbitex.matchingengine.snapshot.EngineSnapshotManager;
+import com.gitbitex.matchingengine.snapshot.EngineState;
+import com.mongodb.client.ClientSession;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderBookSnapshotThreadTest {
+    private static final String PRODUCT_ID = "BTC-USDT";
+    private KafkaConsumer<String, byte[]> consumer;
+    private AppProperties appProperties;
+    private OrderBookSnapshotPublisher orderBookSnapshotPublisher;
+    private OrderBookSnapshotThread thread;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        consumer = mock(KafkaConsumer.class);
+        orderBookSnapshotPublisher = mock(OrderBookSnapshotPublisher.class);
+        when(orderBookSnapshotPublisher.saveL3OrderBook(any(), anyList(), anyList())).thenReturn(true);
+        EngineSnapshotManager engineSnapshotManager = mock(EngineSnapshotManager.class);
+        doAnswer(invocation -> {
+            invocation.<Consumer<ClientSession>>getArgument(0).accept(null);
+            return null;
+        }).when(engineSnapshotManager).runInSession(any());
+        EngineState engineState = new EngineState();
+        engineState.setMessageSequence(10L);
+        when(engineSnapshotManager.getEngineState(any())).thenReturn(engineState);
+        when(engineSnapshotManager.getOrders(any(), eq(PRODUCT_ID)))
+                .thenReturn(List.of(order("a", 1, "100", OrderStatus.OPEN)));
+
+        appProperties = new AppProperties();
+        appProperties.setL2UpdateWindowMs(0);
+        thread = new OrderBookSnapshotThread(consumer, orderBookSnapshotPublisher,
+                engineSnapshotManager, appProperties, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        thread.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void replaysMessagesReceivedDuringRestoreAndSavesAllLevels() throws InterruptedException {
+        // one message older than the restored book, which must be skipped, and one newer, which must be replayed
+        when(consumer.poll(any(Duration.class)))
+                .thenReturn(records(orderMessage(9, order("x", 2, "99", OrderStatus.OPEN)),
+                        orderMessage(11, order("b", 3, "101", OrderStatus.OPEN))))
+                .thenReturn(ConsumerRecords.empty());
+
+        for (int i = 0; i < 500 && mockingDetails(orderBookSnapshotPublisher).getInvocations().stream()
+                .noneMatch(x -> x.getMethod().getName().equals("publishRestored")); i++) {
+            thread.doPoll();
+            Thread.sleep(10);
+        }
+        thread.doPoll();
+
+        // the restored book is saved as it was read, level1 included, and level3 once the kept messages are replayed;
+        // all of it is handed to the publisher, the applier never writes to redis itself
+        ArgumentCaptor<List<L2OrderBook>> l2 = ArgumentCaptor.forClass((Class) List.class);
+        ArgumentCaptor<L2OrderBook> l1 = ArgumentCaptor.forClass(L2OrderBook.class);
+        verify(orderBookSnapshotPublisher).publishRestored(l2.capture(), l1.capture());
+        assertEquals(List.of("100"), prices(l2.getValue().get(0)));
+        assertEquals(List.of("100"), prices(l1.getValue()));
+        verify(orderBookSnapshotPublisher).saveL3OrderBook(argThat(x -> x.getSequence() == 11), anyList(),
+                anyList());
+
+        // the replayed message is published as a change of the best bid
+        ArgumentCaptor<L2OrderBook> published = ArgumentCaptor.forClass(L2OrderBook.class);
+        ArgumentCaptor<L2OrderBook> publishedL1 = ArgumentCaptor.forClass(L2OrderBook.class);
+        verify(orderBookSnapshotPublisher).publishL2(published.capture(), notNull(), publishedL1.capture());
+        assertEquals(List.of("101", "100"), prices(published.getValue()));
+        assertEquals(11, published.getValue().getSequence());
+        assertEquals(List.of("101"), prices(publishedL1.getValue()));
+    }
+
+    @Test
+    void recordsOfOtherShardsAreSkippedWithoutDecoding() {
+        appProperties.setOrderBookShardCount(2);
+        String otherProductId = IntStream.range(0, 10).mapToObj(i -> "P" + i)
+                .filter(x -> Math.floorMod(x.hashCode(), 2) == 1)
+                .findFirst().orElseThrow();
+        // not valid json after the type byte, decoding it would fail
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("engine", 0, 0, otherProductId,
+                new byte[]{MessageType.ORDER.getByteValue(), '?'});
+        record.headers().add(MessageSender.PRODUCT_ID_HEADER, otherProductId.getBytes(StandardCharsets.UTF_8));
+        ConsumerRecord<String, byte[]> account = new ConsumerRecord<>("engine", 0, 1, null,
+                new byte[]{MessageType.ACCOUNT.getByteValue(), '?'});
+        when(consumer.poll(any(Duration.class))).thenReturn(new ConsumerRecords<>(
+                Map.of(new TopicPartition("engine", 0), List.of(record, account))));
+
+        thread.doPoll();
+
+        verifyNoInteractions(orderBookSnapshotPublisher);
+    }
+
+    private static List<String> prices(L2OrderBook orderBook) {
+        return orderBook.getBids().stream().map(L2OrderBook.Line::getPrice).toList();
+    }
+
+    private static ConsumerRecords<String, byte[]> records(Message... messages) {
+        TopicPartition partition = new TopicPartition("engine", 0);
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (Message message : messages) {
+            records.add(new ConsumerRecord<>(partition.topic(), 0, message.getSequence(), PRODUCT_ID,
+                    new MessageSerializer().serialize(partition.topic(), message)));
+        }
+        return new ConsumerRecords<>(Map.of(partition, records));
+    }
+
+    private static OrderMessage orderMessage(long sequence, Order order) {
+        OrderMessage message = new OrderMessage();
+        message.setSequence(sequence);
+        message.setOrder(order);
+        return message;
+    }
+
+    private static Order order(String id, long sequence, String price, OrderStatus status) {
+        Order order = new Order();
+        order.setId(id);
+        order.setUserId("u1");
+        order.setProductId(PRODUCT_ID);
+        order.setSequence(sequence);
+        order.setSide(OrderSide.BUY);
+        order.setPrice(new BigDecimal(price));
+        order.setSize(BigDecimal.ONE);
+        order.setRemainingSize(BigDecimal.ONE);
+        order.setStatus(status);
+        return order;
+    }
+}
@@ -0,0 +1,95 @@
+package com.gitbitex.marketdata.manager;
+
+import com.gitbitex.marketdata.entity.User;
+import com.gitbitex.marketdata.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RBucket;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.MessageListener;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class UserManagerTest {
+    private final Map<String, MessageListener<String>> listeners = new HashMap<>();
+    private final Map<String, RTopic> topics = new HashMap<>();
+    private UserRepository userRepository;
+    private UserManager userManager;
+    private String accessToken;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedissonClient redissonClient = mock(RedissonClient.class);
+        when(redissonClient.getTopic(anyString(), any())).thenAnswer(invocation -> topics.computeIfAbsent(
+                invocation.getArgument(0), name -> {
+                    RTopic topic = mock(RTopic.class);
+                    when(topic.addListener(eq(String.class), any())).thenAnswer(x -> {
+                        listeners.put(name, x.getArgument(1));
+                        return 0;
+                    });
+                    return topic;
+                }));
+        RBucket<Object> bucket = mock(RBucket.class);
+        when(bucket.get()).thenReturn("issued");
+        when(redissonClient.getBucket(anyString())).thenReturn(bucket);
+
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUserId("u1")).thenAnswer(x -> user("alice"));
+        userManager = new UserManager(userRepository, redissonClient, mock(AccountManager.class));
+        userManager.init();
+        User user = user("alice");
+        String secret = DigestUtils.md5DigestAsHex((user.getId() + user.getEmail() + user.getPasswordHash())
+                .getBytes(StandardCharsets.UTF_8));
+        accessToken = "u1:s1:" + secret;
+    }
+
+    @Test
+    void everyCallerGetsACopyOfTheCachedUser() {
+        User first = userManager.getUserByAccessToken(accessToken);
+        first.setNickName("changed by a request");
+
+        User second = userManager.getUserByAccessToken(accessToken);
+        assertNotSame(first, second);
+        assertEquals("alice", second.getNickName());
+        verify(userRepository, times(1)).findByUserId("u1");
+    }
+
+    @Test
+    void profileUpdatesDropTheCachedUserOnEveryNode() {
+        userManager.getUserByAccessToken(accessToken);
+        User user = userManager.getUserByAccessToken(accessToken);
+        user.setNickName("bob");
+        userManager.updateUser(user);
+        verify(userRepository).save(user);
+        verify(topics.get("userUpdated")).publish("u1");
+
+        userManager.getUserByAccessToken(accessToken);
+        verify(userRepository, times(2)).findByUserId("u1");
+
+        // another node updated the user
+        listeners.get("userUpdated").onMessage("userUpdated", "u1");
+        userManager.getUserByAccessToken(accessToken);
+        verify(userRepository, times(3)).findByUserId("u1");
+    }
+
+    private static User user(String nickName) {
+        User user = new User();
+        user.setId("u1");
+        user.setEmail("alice@example.com");
+        user.setPasswordHash("hash");
+        user.setNickName(nickName);
+        return user;
+    }
+}
@@ -0,0 +1,62 @@
+package com.gitbitex.marketdata.orderbook;
+
+import com.gitbitex.enums.OrderSide;
+import com.gitbitex.enums.OrderStatus;
+import com.gitbitex.matchingengine.Order;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpenOrderIndexTest {
+
+    @Test
+    void listsNewestFirstAcrossProducts() {
+        OpenOrderIndex index = new OpenOrderIndex();
+        index.onOrder(order("a", "BTC-USDT", 1, OrderSide.BUY, OrderStatus.OPEN));
+        index.onOrder(order("b", "ETH-USDT", 3, OrderSide.SELL, OrderStatus.OPEN));
+        index.onOrder(order("c", "BTC-USDT", 3, OrderSide.BUY, OrderStatus.OPEN));
+        index.onOrder(order("d", "BTC-USDT", 2, OrderSide.SELL, OrderStatus.OPEN));
+
+        assertEquals(List.of("c", "b", "d", "a"), ids(index.getOrders("u1", null, null)));
+        assertEquals(List.of("c", "d", "a"), ids(index.getOrders("u1", "BTC-USDT", null)));
+        assertEquals(List.of("b", "d"), ids(index.getOrders("u1", null, OrderSide.SELL)));
+        assertTrue(index.getOrders("u2", null, null).isEmpty());
+    }
+
+    @Test
+    void updatesReplaceAndDoneRemoves() {
+        OpenOrderIndex index = new OpenOrderIndex();
+        index.onOrder(order("a", "BTC-USDT", 1, OrderSide.BUY, OrderStatus.OPEN));
+        index.onOrder(order("b", "BTC-USDT", 2, OrderSide.BUY, OrderStatus.OPEN));
+        Order partiallyFilled = order("a", "BTC-USDT", 1, OrderSide.BUY, OrderStatus.OPEN);
+        index.onOrder(partiallyFilled);
+
+        List<Order> orders = index.getOrders("u1", null, null);
+        assertEquals(List.of("b", "a"), ids(orders));
+        assertSame(partiallyFilled, orders.get(1));
+
+        index.onOrder(order("b", "BTC-USDT", 2, OrderSide.BUY, OrderStatus.FILLED));
+        index.onOrder(order("a", "BTC-USDT", 1, OrderSide.BUY, OrderStatus.CANCELLED));
+        assertTrue(index.getOrders("u1", null, null).isEmpty());
+    }
+
+    private static List<String> ids(List<Order> orders) {
+        return orders.stream().map(Order::getId).collect(Collectors.toList());
+    }
+
+    private static Order order(String id, String productId, long sequence, OrderSide side, OrderStatus status) {
+        Order order = new Order();
+        order.setId(id);
+        order.setUserId("u1");
+        order.setProductId(productId);
+        order.setSequence(sequence);
+        order.setSide(side);
+        order.setStatus(status);
+        return order;
+    }
+}
@@ -0,0 +1,184 @@
+package com.gitbitex.marketdata.orderbook;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.gitbitex.marketdata.util.OrderBookCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.redisson.api.RBucket;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.MessageListener;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class OrderBookSnapshotManagerTest {
+    private final Map<String, RTopic> topics = new HashMap<>();
+    private final Map<String, MessageListener<String>> listeners = new HashMap<>();
+    private final Map<String, RBucket<Object>> buckets = new HashMap<>();
+    private OrderBookSnapshotManager manager;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedissonClient redissonClient = mock(RedissonClient.class);
+        when(redissonClient.getTopic(anyString(), any())).thenAnswer(invocation -> {
+            String name = invocation.getArgument(0);
+            RTopic topic = mock(RTopic.class);
+            when(topic.addListener(eq(String.class), any())).thenAnswer(x -> {
+                listeners.put(name, x.getArgument(1));
+                return 0;
+            });
+            topics.put(name, topic);
+            return topic;
+        });
+        when(redissonClient.getBucket(anyString(), any()))
+                .thenAnswer(invocation -> buckets.computeIfAbsent(invocation.getArgument(0), k -> mock(RBucket.class)));
+        manager = new OrderBookSnapshotManager(redissonClient);
+    }
+
+    @Test
+    void bookOlderThanASeenUpdateIsNotCachedAsCurrent() {
+        RBucket<Object> bucket = bucket("BTC-USDT.l2_batch_order_book");
+        when(bucket.get()).thenReturn(OrderBookCodec.encodeL2(book(5)));
+        assertEquals(5, manager.getL2BatchOrderBook("BTC-USDT").getSequence());
+        assertEquals(5, manager.getL2BatchOrderBook("BTC-USDT").getSequence());
+        verify(bucket, times(1)).get();
+
+        // the update is seen before the book it leads to can be read
+        update("l2_update", "BTC-USDT", null, 6);
+        assertEquals(5, manager.getL2BatchOrderBook("BTC-USDT").getSequence());
+        verify(bucket, times(2)).get();
+
+        when(bucket.get()).thenReturn(OrderBookCodec.encodeL2(book(6)));
+        assertEquals(6, manager.getL2BatchOrderBook("BTC-USDT").getSequence());
+        assertEquals(6, manager.getL2BatchOrderBook("BTC-USDT").getSequence());
+        verify(bucket, times(3)).get();
+    }
+
+    @Test
+    void aggregatedBookIsOnlyReloadedOnItsOwnUpdates() {
+        RBucket<Object> bucket = bucket("BTC-USDT@10.l2_batch_order_book");
+        when(bucket.get()).thenReturn(OrderBookCodec.encodeL2(book(5)));
+        manager.getL2BatchOrderBook("BTC-USDT", "10");
+
+        update("l2_update", "BTC-USDT", null, 9);
+        assertEquals("10", manager.getL2BatchOrderBook("BTC-USDT", "10").getAggregation());
+        verify(bucket, times(1)).get();
+
+        update("l2_update", "BTC-USDT", "10", 9);
+        manager.getL2BatchOrderBook("BTC-USDT", "10");
+        verify(bucket, times(2)).get();
+    }
+
+    @Test
+    void level1IsOnlyReloadedOnLevel1Changes() {
+        RBucket<Object> bucket = bucket("BTC-USDT.l1_order_book");
+        when(bucket.get()).thenReturn(OrderBookCodec.encodeL2(book(5)));
+        manager.getL1OrderBook("BTC-USDT");
+
+        update("l2_update", "BTC-USDT", null, 8);
+        manager.getL1OrderBook("BTC-USDT");
+        verify(bucket, times(1)).get();
+
+        update("l1_update", "BTC-USDT", null, 8);
+        manager.getL1OrderBook("BTC-USDT");
+        verify(bucket, times(2)).get();
+    }
+
+    @Test
+    void cachedBooksAreReloadedOnceTooOldEvenWithoutAnUpdate() {
+        RBucket<Object> l2Bucket = bucket("BTC-USDT.l2_batch_order_book");
+        when(l2Bucket.get()).thenReturn(OrderBookCodec.encodeL2(book(5)));
+        RBucket<Object> l1Bucket = bucket("BTC-USDT.l1_order_book");
+        when(l1Bucket.get()).thenReturn(OrderBookCodec.encodeL2(book(5)));
+        manager.setCacheMaxAgeMs(0);
+        manager.getL2BatchOrderBook("BTC-USDT");
+        manager.getL1OrderBook("BTC-USDT");
+
+        // the announcement of book 6 was lost
+        when(l2Bucket.get()).thenReturn(OrderBookCodec.encodeL2(book(6)));
+        when(l1Bucket.get()).thenReturn(OrderBookCodec.encodeL2(book(6)));
+        assertEquals(6, manager.getL2BatchOrderBook("BTC-USDT").getSequence());
+        assertEquals(6, manager.getL1OrderBook("BTC-USDT").getSequence());
+    }
+
+    @Test
+    void snapshotIsWrittenBeforeTheUpdateIsPublished() {
+        L2OrderBookUpdate update = new L2OrderBookUpdate();
+        update.setProductId("BTC-USDT");
+        update.setSequence(7);
+        manager.saveL2Update(book(7), update);
+
+        RBucket<Object> bucket = bucket("BTC-USDT.l2_batch_order_book");
+        InOrder inOrder = inOrder(bucket, topics.get("l2_update"));
+        inOrder.verify(bucket).set(any());
+        inOrder.verify(topics.get("l2_update")).publishAsync(any());
+        // and served from memory afterwards
+        assertEquals(7, manager.getL2BatchOrderBook("BTC-USDT").getSequence());
+        verify(bucket, never()).get();
+    }
+
+    @Test
+    void level3ChunksOfTheCurrentHeaderNeverExpire() {
+        L3OrderBookHeader previous = new L3OrderBookHeader();
+        previous.setProductId("BTC-USDT");
+        previous.setSequence(5);
+        previous.setAskChunks(1);
+        previous.setBidChunks(0);
+        when(bucket("BTC-USDT.l3_order_book").getAndSet(any())).thenReturn(JSON.toJSONString(previous));
+
+        L3OrderBookHeader header = new L3OrderBookHeader();
+        header.setProductId("BTC-USDT");
+        header.setSequence(9);
+        PriceLevel level = new PriceLevel(new BigDecimal("100"));
+        level.addOrder("o1", new BigDecimal("1"));
+        manager.saveL3OrderBook(header, List.of(level), List.of());
+
+        RBucket<Object> chunk = bucket("BTC-USDT.l3_order_book.9.asks.0");
+        InOrder inOrder = inOrder(chunk, bucket("BTC-USDT.l3_order_book"));
+        inOrder.verify(chunk).set(any(), anyLong(), any());
+        inOrder.verify(bucket("BTC-USDT.l3_order_book")).getAndSet(any());
+        inOrder.verify(chunk).clearExpire();
+        // readers of the replaced snapshot get some time to finish
+        verify(bucket("BTC-USDT.l3_order_book.5.asks.0")).expire(any(Duration.class));
+    }
+
+    @Test
+    void shardCountMustMatchTheRunningCluster() {
+        RBucket<Object> bucket = bucket("order_book_shard_count");
+        when(bucket.get()).thenReturn("2");
+        manager.checkShardCount(2);
+        assertThrows(IllegalStateException.class, () -> manager.checkShardCount(3));
+    }
+
+    @SuppressWarnings("unchecked")
+    private RBucket<Object> bucket(String key) {
+        return buckets.computeIfAbsent(key, k -> mock(RBucket.class));
+    }
+
+    private void update(String topic, String productId, String aggregation, long sequence) {
+        JSONObject update = new JSONObject();
+        update.put("productId", productId);
+        update.put("aggregation", aggregation);
+        update.put("sequence", sequence);
+        listeners.get(topic).onMessage(topic, update.toJSONString());
+    }
+
+    private static L2OrderBook book(long sequence) {
+        L2OrderBook l2OrderBook = new L2OrderBook();
+        l2OrderBook.setProductId("BTC-USDT");
+        l2OrderBook.setSequence(sequence);
+        return l2OrderBook;
+    }
+}
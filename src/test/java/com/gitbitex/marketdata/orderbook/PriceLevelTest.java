@@ -0,0 +1,145 @@
+package com.gitbitex.marketdata.orderbook;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PriceLevelTest {
+
+    @Test
+    void keepsTimePriorityAndTotal() {
+        PriceLevel level = new PriceLevel(new BigDecimal("100"));
+        String a = UUID.randomUUID().toString();
+        level.addOrder(a, new BigDecimal("1.5"));
+        level.addOrder("client-1", new BigDecimal("2"));
+        level.addOrder(a, new BigDecimal("0.5"));
+
+        assertEquals(2, level.size());
+        assertEquals(new BigDecimal("2.5"), level.getRemainingSize());
+        assertEquals(a, level.getOrderId(0));
+        assertEquals(new BigDecimal("0.5"), level.getRemainingSize(0));
+        assertEquals("client-1", level.getOrderId(1));
+
+        assertTrue(level.removeOrder(a));
+        assertFalse(level.removeOrder(a));
+        assertFalse(level.containsOrder(a));
+        assertTrue(level.containsOrder("client-1"));
+        assertEquals(new BigDecimal("2"), level.getRemainingSize());
+    }
+
+    @Test
+    void acceptsSizesThatDoNotFitALong() {
+        PriceLevel level = new PriceLevel(new BigDecimal("0.00000001"));
+        level.addOrder("fine", new BigDecimal("0.123456789"));
+        level.addOrder("huge", new BigDecimal("123456789012345678901234567890"));
+        level.addOrder("small", new BigDecimal("1"));
+
+        assertEquals(new BigDecimal("123456789012345678901234567891.123456789"), level.getRemainingSize());
+        assertEquals(new BigDecimal("0.123456789"), level.getRemainingSize(0));
+        assertEquals(new BigDecimal("123456789012345678901234567890"), level.getRemainingSize(1));
+
+        level.removeOrder("huge");
+        level.addOrder("fine", new BigDecimal("2"));
+        assertEquals(new BigDecimal("3"), level.getRemainingSize());
+    }
+
+    @Test
+    void fallsBackWhenTheTotalWouldOverflow() {
+        PriceLevel level = new PriceLevel(BigDecimal.ONE);
+        BigDecimal size = new BigDecimal("9000000000");
+        for (int i = 0; i < 20; i++) {
+            level.addOrder("o" + i, size);
+        }
+
+        assertEquals(size.multiply(BigDecimal.valueOf(20)), level.getRemainingSize());
+        for (int i = 0; i < 20; i += 2) {
+            level.removeOrder("o" + i);
+        }
+        assertEquals(size.multiply(BigDecimal.valueOf(10)), level.getRemainingSize());
+    }
+
+    @Test
+    void findsOrdersOfCrowdedLevelsAfterRemovals() {
+        PriceLevel level = new PriceLevel(BigDecimal.TEN);
+        List<String> orderIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String orderId = i % 3 == 0 ? "client-" + i : UUID.randomUUID().toString();
+            orderIds.add(orderId);
+            level.addOrder(orderId, BigDecimal.ONE);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            assertTrue(level.removeOrder(orderIds.get(i)));
+        }
+
+        assertEquals(50, level.size());
+        assertEquals(new BigDecimal("50"), level.getRemainingSize());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 1, level.containsOrder(orderIds.get(i)));
+        }
+
+        PriceLevel copy = level.copy();
+        level.addOrder("late", BigDecimal.ONE);
+        assertEquals(50, copy.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(orderIds.get(i * 2 + 1), copy.getOrderId(i));
+            assertEquals(orderIds.get(i * 2 + 1), level.getOrderId(i));
+        }
+        assertEquals("late", level.getOrderId(50));
+
+        for (int i = 1; i < 100; i += 2) {
+            level.removeOrder(orderIds.get(i));
+        }
+        assertEquals(1, level.size());
+        assertTrue(level.containsOrder("late"));
+        assertEquals(BigDecimal.ONE, level.getRemainingSize());
+    }
+
+    @Test
+    void matchesAModelUnderRandomChanges() {
+        Random random = new Random(42);
+        PriceLevel level = new PriceLevel(BigDecimal.ONE);
+        LinkedHashMap<String, BigDecimal> model = new LinkedHashMap<>();
+        List<String> orderIds = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            orderIds.add(i % 7 == 0 ? "client-" + i : UUID.randomUUID().toString());
+        }
+        for (int i = 0; i < 20000; i++) {
+            String orderId = orderIds.get(random.nextInt(orderIds.size()));
+            if (random.nextInt(3) == 0) {
+                assertEquals(model.remove(orderId) != null, level.removeOrder(orderId));
+            } else {
+                BigDecimal size = BigDecimal.valueOf(random.nextInt(1000) + 1, 2);
+                model.put(orderId, size);
+                level.addOrder(orderId, size);
+            }
+            if (i % 1000 == 0) {
+                assertMatches(model, level);
+            }
+        }
+        assertMatches(model, level);
+        assertMatches(model, level.copy());
+    }
+
+    private static void assertMatches(LinkedHashMap<String, BigDecimal> model, PriceLevel level) {
+        assertEquals(model.size(), level.size());
+        int i = 0;
+        for (Map.Entry<String, BigDecimal> entry : model.entrySet()) {
+            assertTrue(level.containsOrder(entry.getKey()));
+            assertEquals(entry.getKey(), level.getOrderId(i));
+            assertEquals(0, entry.getValue().compareTo(level.getRemainingSize(i)));
+            i++;
+        }
+        BigDecimal total = model.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(0, total.compareTo(level.getRemainingSize()));
+    }
+}
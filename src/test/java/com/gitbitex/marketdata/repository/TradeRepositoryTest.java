@@ -0,0 +1,80 @@
+package com.gitbitex.marketdata.repository;
+
+import com.gitbitex.marketdata.entity.TradeEntity;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class TradeRepositoryTest {
+    private MongoCollection<TradeEntity> collection;
+    private TradeRepository tradeRepository;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        collection = mock(MongoCollection.class);
+        MongoDatabase database = mock(MongoDatabase.class);
+        when(database.getCollection(anyString(), eq(TradeEntity.class))).thenReturn(collection);
+        tradeRepository = new TradeRepository(database);
+    }
+
+    @Test
+    void insertsOnceAndIgnoresTradesSavedBefore() {
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class)))
+                .thenThrow(bulkWriteException(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0),
+                        new BulkWriteError(11000, "duplicate key", new BsonDocument(), 2)));
+
+        tradeRepository.saveAll(List.of(trade("t1"), trade("t2"), trade("t3")));
+
+        ArgumentCaptor<InsertManyOptions> options = ArgumentCaptor.forClass(InsertManyOptions.class);
+        verify(collection, times(1)).insertMany(anyList(), options.capture());
+        assertFalse(options.getValue().isOrdered());
+    }
+
+    @Test
+    void throwsOtherWriteErrors() {
+        MongoBulkWriteException exception = bulkWriteException(
+                new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0),
+                new BulkWriteError(121, "document failed validation", new BsonDocument(), 1));
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class))).thenThrow(exception);
+
+        assertSame(exception, assertThrows(MongoBulkWriteException.class,
+                () -> tradeRepository.saveAll(List.of(trade("t1"), trade("t2")))));
+    }
+
+    @Test
+    void skipsEmptyBatches() {
+        tradeRepository.saveAll(List.of());
+        verify(collection, never()).insertMany(anyList(), any(InsertManyOptions.class));
+    }
+
+    private static MongoBulkWriteException bulkWriteException(BulkWriteError... errors) {
+        return new MongoBulkWriteException(BulkWriteResult.unacknowledged(), List.of(errors), null,
+                new ServerAddress(), Set.of());
+    }
+
+    private static TradeEntity trade(String id) {
+        TradeEntity trade = new TradeEntity();
+        trade.setId(id);
+        return trade;
+    }
+}
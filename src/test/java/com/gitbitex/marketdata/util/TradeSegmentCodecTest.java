@@ -0,0 +1,65 @@
+package com.gitbitex.marketdata.util;
+
+import com.gitbitex.enums.OrderSide;
+import com.gitbitex.marketdata.entity.TradeEntity;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TradeSegmentCodecTest {
+
+    @Test
+    void roundTripKeepsEveryField() {
+        List<TradeEntity> trades = new ArrayList<>();
+        trades.add(trade(100, 1_700_000_000_000L, OrderSide.BUY, "27000.5", "0.00000001", "t1", "m1"));
+        trades.add(trade(101, 1_700_000_000_000L, OrderSide.SELL, "26999", "12.5", "t2", "m2"));
+        trades.add(trade(105, 1_700_000_003_250L, OrderSide.BUY, "27001.123456789", "3", "t3", null));
+        trades.get(0).setCreatedAt(new Date(1_700_000_000_020L));
+        trades.get(0).setUpdatedAt(new Date(1_699_999_999_990L));
+
+        List<TradeEntity> decoded = TradeSegmentCodec.decode("BTC-USDT", TradeSegmentCodec.encode(trades));
+
+        assertEquals(trades.size(), decoded.size());
+        for (int i = 0; i < trades.size(); i++) {
+            TradeEntity expected = trades.get(i);
+            TradeEntity actual = decoded.get(i);
+            assertEquals("BTC-USDT-" + expected.getSequence(), actual.getId());
+            assertEquals("BTC-USDT", actual.getProductId());
+            assertEquals(expected.getSequence(), actual.getSequence());
+            assertEquals(expected.getTime(), actual.getTime());
+            assertEquals(expected.getSide(), actual.getSide());
+            assertEquals(expected.getPrice(), actual.getPrice());
+            assertEquals(expected.getSize(), actual.getSize());
+            assertEquals(expected.getTakerOrderId(), actual.getTakerOrderId());
+            assertEquals(expected.getMakerOrderId(), actual.getMakerOrderId());
+            assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+            assertEquals(expected.getUpdatedAt(), actual.getUpdatedAt());
+        }
+        assertNull(decoded.get(1).getCreatedAt());
+        assertNull(decoded.get(2).getMakerOrderId());
+    }
+
+    @Test
+    void emptySegment() {
+        assertEquals(0, TradeSegmentCodec.decode("BTC-USDT", TradeSegmentCodec.encode(new ArrayList<>())).size());
+    }
+
+    private static TradeEntity trade(long sequence, long time, OrderSide side, String price, String size,
+                                     String takerOrderId, String makerOrderId) {
+        TradeEntity trade = new TradeEntity();
+        trade.setSequence(sequence);
+        trade.setTime(new Date(time));
+        trade.setSide(side);
+        trade.setPrice(new BigDecimal(price));
+        trade.setSize(new BigDecimal(size));
+        trade.setTakerOrderId(takerOrderId);
+        trade.setMakerOrderId(makerOrderId);
+        return trade;
+    }
+}
@@ -0,0 +1,36 @@
+package com.gitbitex.openapi.model;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderCursorTest {
+
+    @Test
+    void parsesWhatItWrites() {
+        OrderCursor cursor = new OrderCursor(42, "a:b-c");
+        assertEquals(cursor, OrderCursor.parse(cursor.toString()));
+        assertNull(OrderCursor.parse(null));
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        for (String cursor : new String[]{"", "42", "42:", ":abc", "x:abc", "4 2:abc", "99999999999999999999:abc"}) {
+            ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> OrderCursor.parse(cursor),
+                    cursor);
+            assertEquals(HttpStatus.BAD_REQUEST, e.getStatus());
+        }
+    }
+
+    @Test
+    void ordersAfterTheCursorSortBelowIt() {
+        OrderCursor cursor = new OrderCursor(10, "b");
+        assertTrue(cursor.isAfter(9, "z"));
+        assertTrue(cursor.isAfter(10, "a"));
+        assertFalse(cursor.isAfter(10, "b"));
+        assertFalse(cursor.isAfter(10, "c"));
+        assertFalse(cursor.isAfter(11, "a"));
+    }
+}
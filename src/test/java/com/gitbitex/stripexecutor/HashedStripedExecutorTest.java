@@ -0,0 +1,80 @@
+package com.gitbitex.stripexecutor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedStripedExecutorTest {
+    private final HashedStripedExecutor executor = new HashedStripedExecutor("test", 4);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void runsTheTasksOfAStripeInSubmissionOrder() throws InterruptedException {
+        int stripes = 16;
+        int tasksPerStripe = 10000;
+        Map<Integer, List<Integer>> runs = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(stripes * tasksPerStripe);
+        List<Thread> producers = new ArrayList<>();
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            int key = stripe;
+            List<Integer> run = Collections.synchronizedList(new ArrayList<>());
+            runs.put(key, run);
+            // one producer per stripe, all stripes are submitted to concurrently
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < tasksPerStripe; i++) {
+                    int task = i;
+                    executor.execute("stripe-" + key, () -> {
+                        run.add(task);
+                        done.countDown();
+                    });
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (List<Integer> run : runs.values()) {
+            assertEquals(tasksPerStripe, run.size());
+            for (int i = 0; i < tasksPerStripe; i++) {
+                assertEquals(i, run.get(i));
+            }
+        }
+    }
+
+    @Test
+    void keepsRunningAfterAFailingTask() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute("a", () -> {
+            throw new IllegalStateException("expected");
+        });
+        executor.execute("a", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void dropsTasksAfterShutdown() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute("a", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        executor.shutdown();
+        CountDownLatch dropped = new CountDownLatch(1);
+        executor.execute("a", dropped::countDown);
+        assertFalse(dropped.await(100, TimeUnit.MILLISECONDS));
+    }
+}